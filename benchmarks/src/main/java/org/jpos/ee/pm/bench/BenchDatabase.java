@@ -0,0 +1,207 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.jpos.ee.pm.security.SECPermission;
+import org.jpos.ee.pm.security.SECUser;
+import org.jpos.ee.pm.security.SECUserGroup;
+import org.jpos.ee.pm.security.SECUserProp;
+
+/**
+ * In memory H2 database seeded with benchmark items and security rows. The
+ * rows come from a fixed seed, so every run and every commit measures the
+ * same data.
+ */
+public class BenchDatabase {
+
+    public static final long SEED = 42L;
+    public static final String[] STATUSES = {"NEW", "APPROVED", "DECLINED", "REVERSED"};
+    public static final String[] CITIES = {"Buenos Aires", "Cordoba", "Rosario", "Mendoza", "La Plata", "Salta", "Neuquen", "Ushuaia"};
+    public static final String[] WORDS = {"card", "purchase", "refund", "debit", "credit", "transfer", "fee", "cash", "online", "store"};
+    public static final int PERMISSIONS = 100;
+    public static final int GROUPS = 20;
+    /**
+     * One merchant every this many items
+     */
+    public static final int ITEMS_PER_MERCHANT = 100;
+    private static final int FLUSH_SIZE = 500;
+    private final SessionFactory sessionFactory;
+    private final long[] itemIds;
+    private final int users;
+
+    /**
+     * @param items number of items to seed
+     * @param users number of users to seed
+     */
+    public BenchDatabase(int items, int users) {
+        final Configuration cfg = new Configuration();
+        cfg.setProperty(Environment.DIALECT, H2Dialect.class.getName());
+        cfg.setProperty(Environment.DRIVER, "org.h2.Driver");
+        cfg.setProperty(Environment.URL, "jdbc:h2:mem:bench" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        cfg.setProperty(Environment.USER, "sa");
+        cfg.setProperty(Environment.PASS, "");
+        cfg.setProperty(Environment.HBM2DDL_AUTO, "create");
+        cfg.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+        cfg.setProperty(Environment.USE_QUERY_CACHE, "false");
+        cfg.setProperty(Environment.STATEMENT_BATCH_SIZE, Integer.toString(FLUSH_SIZE));
+        cfg.addAnnotatedClass(BenchMerchant.class);
+        cfg.addAnnotatedClass(BenchItem.class);
+        cfg.addAnnotatedClass(SECPermission.class);
+        cfg.addAnnotatedClass(SECUserGroup.class);
+        cfg.addAnnotatedClass(SECUser.class);
+        cfg.addAnnotatedClass(SECUserProp.class);
+        this.sessionFactory = cfg.buildSessionFactory();
+        this.users = users;
+        final Random random = new Random(SEED);
+        this.itemIds = seedItems(random, items);
+        seedSecurity(random, users);
+    }
+
+    private long[] seedItems(Random random, int items) {
+        final long[] ids = new long[items];
+        final Session db = sessionFactory.openSession();
+        final Transaction tx = db.beginTransaction();
+        try {
+            final long[] merchants = new long[Math.max(1, items / ITEMS_PER_MERCHANT)];
+            for (int i = 0; i < merchants.length; i++) {
+                final BenchMerchant m = new BenchMerchant();
+                m.setName(String.format("Merchant %05d", random.nextInt(100000)));
+                m.setCity(CITIES[random.nextInt(CITIES.length)]);
+                db.save(m);
+                merchants[i] = m.getId();
+            }
+            db.flush();
+            final long start = 1293840000000L;
+            for (int i = 0; i < items; i++) {
+                final BenchItem item = new BenchItem();
+                item.setCode(String.format("IT%08d", i));
+                item.setDescription(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]);
+                item.setStatus(STATUSES[random.nextInt(STATUSES.length)]);
+                item.setAmount(random.nextInt(100000));
+                item.setCreated(new Date(start + random.nextInt(365 * 24 * 60) * 60000L));
+                //Some items have no merchant
+                if (random.nextInt(10) != 0) {
+                    item.setMerchant((BenchMerchant) db.load(BenchMerchant.class, merchants[random.nextInt(merchants.length)]));
+                }
+                db.save(item);
+                ids[i] = item.getId();
+                if (i % FLUSH_SIZE == FLUSH_SIZE - 1) {
+                    db.flush();
+                    db.clear();
+                }
+            }
+            tx.commit();
+        } finally {
+            db.close();
+        }
+        return ids;
+    }
+
+    private void seedSecurity(Random random, int users) {
+        final Session db = sessionFactory.openSession();
+        final Transaction tx = db.beginTransaction();
+        try {
+            final List<SECPermission> permissions = new ArrayList<SECPermission>();
+            for (int i = 0; i < PERMISSIONS; i++) {
+                final SECPermission p = new SECPermission(getPermissionName(i));
+                db.save(p);
+                permissions.add(p);
+            }
+            final List<SECUserGroup> groups = new ArrayList<SECUserGroup>();
+            for (int i = 0; i < GROUPS; i++) {
+                final SECUserGroup g = new SECUserGroup();
+                g.setName("group" + i);
+                g.setDescription("Group " + i);
+                g.setActive(true);
+                g.setCreation(new Date());
+                final int granted = 10 + random.nextInt(20);
+                for (int j = 0; j < granted; j++) {
+                    g.grant(permissions.get(random.nextInt(PERMISSIONS)));
+                }
+                db.save(g);
+                groups.add(g);
+            }
+            db.flush();
+            for (int i = 0; i < users; i++) {
+                final SECUser u = new SECUser();
+                u.setNick(getNick(i));
+                u.setName("User " + i);
+                u.setEmail(getNick(i) + "@example.com");
+                u.setPassword("secret");
+                u.setActive(true);
+                final int memberships = 1 + random.nextInt(4);
+                for (int j = 0; j < memberships; j++) {
+                    final SECUserGroup g = groups.get(random.nextInt(GROUPS));
+                    if (!u.getGroups().contains(g)) {
+                        u.getGroups().add(g);
+                    }
+                }
+                db.save(u);
+                if (i % FLUSH_SIZE == FLUSH_SIZE - 1) {
+                    db.flush();
+                    db.clear();
+                }
+            }
+            tx.commit();
+        } finally {
+            db.close();
+        }
+    }
+
+    public static String getPermissionName(int i) {
+        return "perm" + i;
+    }
+
+    public static String getNick(int i) {
+        return "user" + i;
+    }
+
+    public Session openSession() {
+        return sessionFactory.openSession();
+    }
+
+    public SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * @return the identifiers of the seeded items
+     */
+    public long[] getItemIds() {
+        return itemIds;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public void close() {
+        sessionFactory.close();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jpos.ee.pm.core.DBEntityFilter;
+import org.jpos.ee.pm.core.Entity;
+import org.jpos.ee.pm.core.Field;
+import org.jpos.ee.pm.core.FilterBehavior;
+import org.jpos.ee.pm.core.FilterOperation;
+import org.jpos.ee.pm.core.ListSort;
+
+/**
+ * Entity, filter and sort definitions built in code instead of being read
+ * from the xml definition files
+ */
+public final class BenchModel {
+
+    /**
+     * Names of the filters of {@link #filter(Entity, String)}
+     */
+    public static final String NO_FILTER = "none";
+    public static final String EQ_FILTER = "eq";
+    public static final String LIKE_FILTER = "like";
+    public static final String RANGE_FILTER = "range";
+    public static final String OR_FILTER = "or";
+    public static final String JOIN_FILTER = "join";
+    /**
+     * Name of the unsorted listing in {@link #sort(String)}
+     */
+    public static final String NO_SORT = "none";
+
+    private BenchModel() {
+    }
+
+    /**
+     * The item entity. Field ids are their properties but for otherStatus, a
+     * second field on the status.
+     */
+    public static Entity items() {
+        return new BenchEntity("benchItem", BenchItem.class, "id", "code", "description", "status", "amount", "created", "merchant", "merchant.name", "merchant.city")
+                .field("otherStatus", "status");
+    }
+
+    /**
+     * @param name one of the filter names of this class
+     * @return a filter of the given entity
+     */
+    public static BenchFilter filter(Entity entity, String name) {
+        final BenchFilter result = new BenchFilter();
+        if (EQ_FILTER.equals(name)) {
+            result.add("status", FilterOperation.EQ, BenchDatabase.STATUSES[1]);
+        } else if (LIKE_FILTER.equals(name)) {
+            result.add("description", FilterOperation.LIKE, BenchDatabase.WORDS[3]);
+        } else if (RANGE_FILTER.equals(name)) {
+            result.add("amount", FilterOperation.BETWEEN, 25000L, 30000L);
+        } else if (OR_FILTER.equals(name)) {
+            result.setBehavior(FilterBehavior.OR);
+            result.add("status", FilterOperation.EQ, BenchDatabase.STATUSES[2]);
+            result.add("otherStatus", FilterOperation.EQ, BenchDatabase.STATUSES[3]);
+        } else if (JOIN_FILTER.equals(name)) {
+            result.add("merchant.city", FilterOperation.EQ, BenchDatabase.CITIES[0]);
+            result.add("status", FilterOperation.EQ, BenchDatabase.STATUSES[1]);
+        } else if (!NO_FILTER.equals(name)) {
+            throw new IllegalArgumentException("Unknown filter " + name);
+        }
+        result.process(entity);
+        return result;
+    }
+
+    /**
+     * @param fieldId the field to sort by, prefixed by "-" to sort descending,
+     * or {@link #NO_SORT}
+     */
+    public static ListSort sort(String fieldId) {
+        if (NO_SORT.equals(fieldId)) {
+            return null;
+        }
+        final boolean desc = fieldId.startsWith("-");
+        return new BenchSort(desc ? fieldId.substring(1) : fieldId, !desc);
+    }
+
+    public static class BenchEntity extends Entity {
+
+        private final String id;
+        private final String clazz;
+        private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+
+        public BenchEntity(String id, Class<?> clazz, String... properties) {
+            this.id = id;
+            this.clazz = clazz.getName();
+            for (String property : properties) {
+                fields.put(property, new BenchField(property, property));
+            }
+        }
+
+        public BenchEntity field(String fieldId, String property) {
+            fields.put(fieldId, new BenchField(fieldId, property));
+            return this;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getClazz() {
+            return clazz;
+        }
+
+        @Override
+        public Field getFieldById(String fieldId) {
+            return fields.get(fieldId);
+        }
+    }
+
+    public static class BenchField extends Field {
+
+        private final String id;
+        private final String property;
+
+        public BenchField(String id, String property) {
+            this.id = id;
+            this.property = property;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getProperty() {
+            return property;
+        }
+    }
+
+    /**
+     * A filter holding its values instead of reading them from a request
+     */
+    public static class BenchFilter extends DBEntityFilter {
+
+        private final Map<String, List<Object>> values = new LinkedHashMap<String, List<Object>>();
+        private final Map<String, FilterOperation> operations = new HashMap<String, FilterOperation>();
+        private FilterBehavior behavior = FilterBehavior.AND;
+
+        public BenchFilter add(String fieldId, FilterOperation operation, Object... value) {
+            values.put(fieldId, new ArrayList<Object>(Arrays.asList(value)));
+            operations.put(fieldId, operation);
+            return this;
+        }
+
+        public void setBehavior(FilterBehavior behavior) {
+            this.behavior = behavior;
+        }
+
+        @Override
+        public Map<String, List<Object>> getFilterValues() {
+            return values;
+        }
+
+        @Override
+        public FilterOperation getFilterOperation(String fieldId) {
+            final FilterOperation result = operations.get(fieldId);
+            return (result == null) ? FilterOperation.EQ : result;
+        }
+
+        @Override
+        public FilterBehavior getBehavior() {
+            return behavior;
+        }
+    }
+
+    public static class BenchSort extends ListSort {
+
+        private final String fieldId;
+        private final boolean ascending;
+
+        public BenchSort(String fieldId, boolean ascending) {
+            this.fieldId = fieldId;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public boolean isSorted() {
+            return true;
+        }
+
+        @Override
+        public String getFieldId() {
+            return fieldId;
+        }
+
+        @Override
+        public SortDirection getDirection() {
+            return ascending ? SortDirection.ASC : SortDirection.DESC;
+        }
+    }
+}
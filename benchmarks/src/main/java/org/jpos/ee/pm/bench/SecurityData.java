@@ -0,0 +1,79 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.jpos.ee.pm.security.SECUser;
+import org.jpos.ee.pm.security.SECUserGroup;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Seeded users loaded with their groups and permissions, then detached, so
+ * the security benchmarks run without the database
+ */
+@State(Scope.Benchmark)
+public class SecurityData {
+
+    @Param("1000")
+    public int users;
+    private BenchDatabase database;
+    private SECUser[] loaded;
+    private String[] permissions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchDatabase(0, users);
+        final Session db = database.openSession();
+        try {
+            final List<?> l = db.createQuery("select distinct u from SECUser u left join fetch u.groups order by u.id").list();
+            loaded = l.toArray(new SECUser[l.size()]);
+            for (SECUser u : loaded) {
+                for (SECUserGroup g : u.getGroups()) {
+                    g.getPermissions().size();
+                }
+            }
+        } finally {
+            db.close();
+        }
+        permissions = new String[BenchDatabase.PERMISSIONS];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = BenchDatabase.getPermissionName(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    public SECUser getUser(Random random) {
+        return loaded[random.nextInt(loaded.length)];
+    }
+
+    public String getPermission(Random random) {
+        return permissions[random.nextInt(permissions.length)];
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.jpos.ee.pm.bench.BenchDatabase;
+import org.jpos.ee.pm.bench.BenchItem;
+import org.jpos.ee.pm.bench.BenchModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Listing, counting and loading items with {@link DataAccessDB}. Each
+ * invocation clears the session afterwards, like a session per request, so
+ * nothing is served from the previous one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataAccessDBBenchmark {
+
+    public static final int PAGE_SIZE = 20;
+
+    @State(Scope.Benchmark)
+    public static class Data {
+
+        @Param("10000")
+        public int rows;
+        BenchDatabase database;
+        Entity entity;
+        DataAccessDB dataAccess;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            database = new BenchDatabase(rows, 0);
+            entity = BenchModel.items();
+            dataAccess = new DataAccessDB();
+            dataAccess.setEntity(entity);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            DBQueryTemplate.remove(entity.getId());
+            database.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        PMContext ctx;
+        Session session;
+        Random random;
+
+        @Setup(Level.Iteration)
+        public void open(Data data) {
+            ctx = new PMContext();
+            session = data.database.openSession();
+            random = new Random(BenchDatabase.SEED);
+            DataAccessDB.bindSession(session);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            DataAccessDB.unbindSession();
+            session.close();
+        }
+
+        <T> T done(T result) {
+            session.clear();
+            return result;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Filtering {
+
+        @Param({BenchModel.NO_FILTER, BenchModel.EQ_FILTER, BenchModel.LIKE_FILTER, BenchModel.RANGE_FILTER, BenchModel.OR_FILTER, BenchModel.JOIN_FILTER})
+        public String filter;
+        EntityFilter entityFilter;
+
+        @Setup(Level.Trial)
+        public void setUp(Data data) {
+            entityFilter = BenchModel.filter(data.entity, filter);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sorting {
+
+        @Param({BenchModel.NO_SORT, "code", "-created", "merchant.name"})
+        public String sort;
+        ListSort listSort;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            listSort = BenchModel.sort(sort);
+        }
+    }
+
+    @Benchmark
+    public List<?> list(Data data, Request request, Filtering filtering, Sorting sorting) throws PMException {
+        return request.done(data.dataAccess.list(request.ctx, filtering.entityFilter, sorting.listSort, 0, PAGE_SIZE));
+    }
+
+    /**
+     * The second page, so the total has to be counted
+     */
+    @Benchmark
+    public DBPage listWithTotal(Data data, Request request, Filtering filtering, Sorting sorting) throws PMException {
+        return request.done(data.dataAccess.listWithTotal(request.ctx, filtering.entityFilter, sorting.listSort, PAGE_SIZE, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public Long count(Data data, Request request, Filtering filtering) throws PMException {
+        return request.done(data.dataAccess.count(request.ctx, filtering.entityFilter, null));
+    }
+
+    @Benchmark
+    public Object getItem(Data data, Request request) throws PMException {
+        final long[] ids = data.database.getItemIds();
+        final String id = Long.toString(ids[request.random.nextInt(ids.length)]);
+        return request.done(data.dataAccess.getItem(request.ctx, "id", id));
+    }
+
+    /**
+     * Building the restrictions only, nothing is run
+     */
+    @Benchmark
+    public Criteria applyFilters(Request request, Filtering filtering) throws PMException {
+        final Criteria criteria = request.session.createCriteria(BenchItem.class);
+        return ((DBEntityFilter) filtering.entityFilter).applyFilters(criteria, new ArrayList<String>());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.security;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.ee.pm.bench.BenchDatabase;
+import org.jpos.ee.pm.bench.SecurityData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Permission checks of users with their groups loaded
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SECUserBenchmark {
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        final Random random = new Random(BenchDatabase.SEED);
+    }
+
+    @Benchmark
+    public boolean hasPermission(SecurityData data, Request request) {
+        return data.getUser(request.random).hasPermission(data.getPermission(request.random));
+    }
+
+    /**
+     * The first check after the groups changed, it compiles the permissions
+     */
+    @Benchmark
+    public boolean hasPermissionAfterChange(SecurityData data, Request request) {
+        final SECUser user = data.getUser(request.random);
+        user.invalidatePermissions();
+        return user.hasPermission(data.getPermission(request.random));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a batched write: how many items were written and which ones
+ * failed and why.
+ *
+ * @see DataAccessDB#addAll(PMContext, java.util.Collection)
+ */
+public class DBBatchResult {
+
+    private int succeeded;
+    private final List<Failure> failures = new ArrayList<Failure>();
+
+    public void succeeded(int count) {
+        succeeded += count;
+    }
+
+    public void failed(Object item, Exception error) {
+        failures.add(new Failure(item, error));
+    }
+
+    /**
+     * @return the number of items written
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return the items that could not be written
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * An item that could not be written
+     */
+    public static class Failure {
+
+        private final Object item;
+        private final Exception error;
+
+        public Failure(Object item, Exception error) {
+            this.item = item;
+            this.error = error;
+        }
+
+        public Object getItem() {
+            return item;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the item broke a database constraint
+         */
+        public boolean isConstraintViolation() {
+            return error instanceof org.hibernate.exception.ConstraintViolationException;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread safe in-memory cache with a maximum size (least recently used
+ * entries are dropped first) and a time to live for each entry.
+ */
+public class DBCache<K, V> {
+
+    private final long ttl;
+    private final Map<K, Item<V>> entries;
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttl default time to live of an entry in milliseconds
+     */
+    public DBCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<K, Item<V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Item<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value or null if there is none or it expired
+     */
+    public synchronized V get(K key) {
+        final Item<V> e = entries.get(key);
+        if (e == null) {
+            return null;
+        }
+        if (e.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return e.value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttl);
+    }
+
+    public synchronized void put(K key, V value, long ttl) {
+        entries.put(key, new Item<V>(value, System.currentTimeMillis() + ttl));
+    }
+
+    public synchronized V remove(K key) {
+        final Item<V> e = entries.remove(key);
+        return (e == null) ? null : e.value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    private static class Item<V> {
+
+        private final V value;
+        private final long expires;
+
+        Item(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+/**
+ * A list filter whose restriction can be identified by a key, which makes
+ * the counts of its entity cacheable. Counts of entities with any other list
+ * filter are never cached, since the restriction it returns (for example a
+ * sqlRestriction) does not show its bound values.
+ *
+ * @see DataAccessDB#setCountCacheTTL(long)
+ */
+public interface DBCacheableListFilter extends ListFilter {
+
+    /**
+     * @return a key that differs whenever the list filter restricts
+     * differently, such as the user or tenant it filters by, or null if the
+     * current restriction can not be cached
+     */
+    String getCacheKey(PMContext ctx);
+}
@@ -0,0 +1,75 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Entity counts shared by every {@link DataAccessDB}, kept per entity and
+ * normalized filter key so a write on an entity drops all of its counts.
+ */
+public class DBCountCache {
+
+    /**
+     * Maximum number of different filters remembered for each entity
+     */
+    public static final int MAX_ENTRIES_PER_ENTITY = 256;
+    private static final DBCountCache instance = new DBCountCache();
+    private final ConcurrentMap<String, DBCache<String, Long>> caches;
+
+    public DBCountCache() {
+        super();
+        caches = new ConcurrentHashMap<String, DBCache<String, Long>>();
+    }
+
+    public static DBCountCache getInstance() {
+        return instance;
+    }
+
+    public Long get(String entityId, String key) {
+        final DBCache<String, Long> cache = caches.get(entityId);
+        return (cache == null) ? null : cache.get(key);
+    }
+
+    public void put(String entityId, String key, Long count, long ttl) {
+        DBCache<String, Long> cache = caches.get(entityId);
+        if (cache == null) {
+            final DBCache<String, Long> created = new DBCache<String, Long>(MAX_ENTRIES_PER_ENTITY, ttl);
+            cache = caches.putIfAbsent(entityId, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        cache.put(key, count, ttl);
+    }
+
+    /**
+     * Drop every count of the entity
+     */
+    public void invalidate(String entityId) {
+        final DBCache<String, Long> cache = caches.get(entityId);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    public void clear() {
+        caches.clear();
+    }
+}
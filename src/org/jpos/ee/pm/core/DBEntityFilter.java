@@ -17,19 +17,35 @@
  */
 package org.jpos.ee.pm.core;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
 
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Junction;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
 
 public class DBEntityFilter extends EntityFilter {
 
     private List<Criterion> filters;
     private Entity entity;
+    private DBTextSearch textSearch;
+    private Map<String, DBTextMatch> textMatches = new HashMap<String, DBTextMatch>();
 
     public DBEntityFilter() {
         super();
@@ -46,11 +62,21 @@ public class DBEntityFilter extends EntityFilter {
         this.entity = entity;
     }
 
-    protected Criterion getCompareCriterion(String fieldid, String fieldProperty, List<Object> values) {
+    protected Criterion getCompareCriterion(String fieldid, String fieldProperty, List<Object> values) throws PMException {
         Object value_0 = values.get(0);
         switch (getFilterOperation(fieldid)) {
             case LIKE:
                 if (value_0 instanceof String) {
+                    final Criterion match = getTextMatch(fieldid).getCriterion(fieldProperty, (String) value_0);
+                    if (match != null) {
+                        return match;
+                    }
+                    if (getTextSearch() != null) {
+                        final Criterion search = getTextSearch().getCriterion(entity, fieldProperty, (String) value_0);
+                        if (search != null) {
+                            return search;
+                        }
+                    }
                     return Restrictions.ilike(fieldProperty, "%" + value_0 + "%");
                 } else {
                     return Restrictions.eq(fieldProperty, value_0);
@@ -72,47 +98,175 @@ public class DBEntityFilter extends EntityFilter {
         }
     }
 
+    /**
+     * Normalized representation of the filter state. Two filters with the
+     * same key produce the same restrictions.
+     */
+    public String getFilterKey() {
+        return getFilterKey(null);
+    }
+
+    /**
+     * Normalized representation of the filter state, safe to use as a cache
+     * key: values are rendered by type and mapped entities by entity name and
+     * identifier instead of their display text.
+     *
+     * @param sf session factory used to identify entity values, null to
+     * render them with toString
+     * @return the key or null if some value can not be identified
+     */
+    public String getFilterKey(SessionFactory sf) {
+        final StringBuilder sb = new StringBuilder(String.valueOf(getBehavior()));
+        for (Entry<String, List<Object>> entry : new TreeMap<String, List<Object>>(getFilterValues()).entrySet()) {
+            final List<Object> values = entry.getValue();
+            if (values.get(0) != null) {
+                sb.append('|').append(entry.getKey());
+                sb.append(' ').append(getFilterOperation(entry.getKey()));
+                for (Object value : values) {
+                    final String key = getValueKey(sf, value);
+                    if (key == null) {
+                        return null;
+                    }
+                    sb.append(' ').append(key);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getValueKey(SessionFactory sf, Object value) {
+        if (value == null || value instanceof String || value instanceof Number
+                || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            return String.valueOf(value);
+        }
+        if (value instanceof Date) {
+            return "@" + ((Date) value).getTime();
+        }
+        if (sf == null) {
+            return String.valueOf(value);
+        }
+        try {
+            if (value instanceof HibernateProxy) {
+                final LazyInitializer li = ((HibernateProxy) value).getHibernateLazyInitializer();
+                return li.getEntityName() + "#" + li.getIdentifier();
+            }
+            final ClassMetadata metadata = sf.getClassMetadata(value.getClass());
+            if (metadata != null) {
+                final Serializable id = metadata.getIdentifier(value, EntityMode.POJO);
+                return (id == null) ? null : metadata.getEntityName() + "#" + id;
+            }
+        } catch (HibernateException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if no restriction is applied
+     */
+    public boolean isEmpty() {
+        for (List<Object> values : getFilterValues().values()) {
+            if (values.get(0) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public final void setFilters(List<Criterion> filters) {
         this.filters = filters;
     }
 
+    /**
+     * Backend used for LIKE filters, null for a plain case insensitive LIKE
+     */
+    public void setTextSearch(DBTextSearch textSearch) {
+        this.textSearch = textSearch;
+    }
+
+    public DBTextSearch getTextSearch() {
+        return textSearch;
+    }
+
+    /**
+     * How the LIKE filter of a field matches, {@link DBTextMatch#CONTAINS} by
+     * default
+     */
+    public void setTextMatch(String fieldId, DBTextMatch match) {
+        textMatches.put(fieldId, match);
+    }
+
+    public DBTextMatch getTextMatch(String fieldId) {
+        final DBTextMatch result = textMatches.get(fieldId);
+        return (result == null) ? DBTextMatch.CONTAINS : result;
+    }
+
+    public void setTextMatches(Map<String, DBTextMatch> textMatches) {
+        this.textMatches = textMatches;
+    }
+
+    public Map<String, DBTextMatch> getTextMatches() {
+        return textMatches;
+    }
+
+    /**
+     * Add the filter restrictions to the criteria in a single pass, creating
+     * the aliases they need. Field properties and alias paths come from the
+     * {@link DBQueryTemplate} of the entity so they are resolved once.
+     *
+     * On OR filters the equalities on the same property are merged into one
+     * IN restriction, which the database can answer with a single index
+     * lookup instead of a disjunction.
+     */
     public Criteria applyFilters(Criteria criteria, List<String> aliases) throws PMException {
+        final DBQueryTemplate template = DBQueryTemplate.get(entity);
+        final boolean or = getBehavior() == FilterBehavior.OR;
+        final List<Criterion> restrictions = new ArrayList<Criterion>();
+        final Map<String, List<Entry<String, List<Object>>>> equalities = new LinkedHashMap<String, List<Entry<String, List<Object>>>>();
         Criteria tmpCriteria = criteria;
-        //First we create all the needed aliases
         for (Entry<String, List<Object>> entry : getFilterValues().entrySet()) {
-            final Field field = entity.getFieldById(entry.getKey());
-            if (field == null) {
-                throw new PMException("Undefined field " + entry.getKey());
+            final String property = template.getProperty(entry.getKey());
+            if (entry.getValue().get(0) == null) {
+                continue;
             }
-            final List<Object> values = entry.getValue();
-            if (values.get(0) != null) {
-                final String[] splitorder = field.getProperty().split("[.]");
-                for (int i = 0; i < splitorder.length - 1; i++) {
-                    final String s = splitorder[i];
-                    if (!aliases.contains(s)) {
-                        tmpCriteria = tmpCriteria.createAlias(s, s);
-                        aliases.add(s);
-                    }
+            for (String alias : template.getAliases(property)) {
+                if (!aliases.contains(alias)) {
+                    tmpCriteria = tmpCriteria.createAlias(alias, alias);
+                    aliases.add(alias);
+                }
+            }
+            if (or && getFilterOperation(entry.getKey()) == FilterOperation.EQ) {
+                List<Entry<String, List<Object>>> same = equalities.get(property);
+                if (same == null) {
+                    same = new ArrayList<Entry<String, List<Object>>>();
+                    equalities.put(property, same);
                 }
+                same.add(entry);
+            } else {
+                restrictions.add(getCompareCriterion(entry.getKey(), property, entry.getValue()));
             }
         }
-        //Then we add the restrictions
-        Junction c = null;
-        switch (getBehavior()) {
-            case OR:
-                c = Restrictions.disjunction();
-                break;
-            default:
-                c = Restrictions.conjunction();
+        for (Entry<String, List<Entry<String, List<Object>>>> same : equalities.entrySet()) {
+            if (same.getValue().size() == 1) {
+                final Entry<String, List<Object>> entry = same.getValue().get(0);
+                restrictions.add(getCompareCriterion(entry.getKey(), same.getKey(), entry.getValue()));
+            } else {
+                final Set<Object> values = new LinkedHashSet<Object>();
+                for (Entry<String, List<Object>> entry : same.getValue()) {
+                    values.add(entry.getValue().get(0));
+                }
+                restrictions.add(Restrictions.in(same.getKey(), values));
+            }
         }
-        for (Entry<String, List<Object>> entry : getFilterValues().entrySet()) {
-            final Field field = entity.getFieldById(entry.getKey());
-            final List<Object> values = entry.getValue();
-            if (values.get(0) != null) {
-                c.add(getCompareCriterion(field.getId(), field.getProperty(), values));
+        if (restrictions.size() == 1) {
+            tmpCriteria.add(restrictions.get(0));
+        } else if (!restrictions.isEmpty()) {
+            final Junction c = or ? Restrictions.disjunction() : Restrictions.conjunction();
+            for (Criterion restriction : restrictions) {
+                c.add(restriction);
             }
+            tmpCriteria.add(c);
         }
-        tmpCriteria.add(c);
         return tmpCriteria;
     }
 }
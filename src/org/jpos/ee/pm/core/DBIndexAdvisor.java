@@ -0,0 +1,397 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+/**
+ * Records the filter and sort combinations used by the entity lists and how
+ * long they took, and turns them into CREATE INDEX suggestions.
+ *
+ * Every property is resolved to its table and columns through the hibernate
+ * metadata, following many-to-one paths. Each table gets one index with the
+ * equality columns first, then the sort column, then the first range column
+ * (LIKE and NE can not use an index and are left out). Suggestions are ranked
+ * by the total time spent in the queries they would serve.
+ *
+ * Recording is disabled by default; enable it with setEnabled or
+ * -Djpospm.db.advisor=true.
+ */
+public class DBIndexAdvisor {
+
+    /**
+     * Maximum number of different query shapes recorded
+     */
+    public static final int MAX_SHAPES = 1024;
+    private static final int MAX_INDEX_NAME = 30;
+    private static final DBIndexAdvisor instance = new DBIndexAdvisor();
+    private final ConcurrentMap<String, Usage> usages = new ConcurrentHashMap<String, Usage>();
+    private volatile boolean enabled = Boolean.getBoolean("jpospm.db.advisor");
+
+    public static DBIndexAdvisor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record a query of the entity
+     *
+     * @param filter the applied filter, may be null
+     * @param sortProperty the sorted property, may be null
+     * @param nanos time spent in the query
+     */
+    public void record(Entity entity, EntityFilter filter, String sortProperty, long nanos) throws PMException {
+        if (!isEnabled()) {
+            return;
+        }
+        final DBQueryTemplate template = DBQueryTemplate.get(entity);
+        final Map<String, FilterOperation> conditions = new TreeMap<String, FilterOperation>();
+        if (filter != null) {
+            for (Map.Entry<String, List<Object>> entry : filter.getFilterValues().entrySet()) {
+                if (entry.getValue().get(0) != null) {
+                    conditions.put(template.getProperty(entry.getKey()), filter.getFilterOperation(entry.getKey()));
+                }
+            }
+        }
+        if (conditions.isEmpty() && sortProperty == null) {
+            return;
+        }
+        final String key = template.getEntityClass().getName() + conditions + sortProperty;
+        Usage usage = usages.get(key);
+        if (usage == null) {
+            if (usages.size() >= MAX_SHAPES) {
+                return;
+            }
+            final Usage created = new Usage(template.getEntityClass(), conditions, sortProperty);
+            usage = usages.putIfAbsent(key, created);
+            if (usage == null) {
+                usage = created;
+            }
+        }
+        usage.add(nanos);
+    }
+
+    /**
+     * @return the index suggestions, the most expensive first
+     */
+    public List<Suggestion> getSuggestions(SessionFactory sf) {
+        final Map<String, Suggestion> result = new LinkedHashMap<String, Suggestion>();
+        for (Usage usage : usages.values()) {
+            final Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+            for (Map.Entry<String, FilterOperation> c : usage.getConditions().entrySet()) {
+                switch (c.getValue()) {
+                    case EQ:
+                        add(sf, usage, c.getKey(), indexes, 0);
+                        break;
+                    case GT:
+                    case GE:
+                    case LT:
+                    case LE:
+                    case BETWEEN:
+                        add(sf, usage, c.getKey(), indexes, 2);
+                        break;
+                    default:
+                        //Not indexable
+                }
+            }
+            if (usage.getSortProperty() != null) {
+                add(sf, usage, usage.getSortProperty(), indexes, 1);
+            }
+            for (Index index : indexes.values()) {
+                final List<String> columns = index.getColumns();
+                if (columns.isEmpty() || columns.equals(index.primaryKey)) {
+                    continue;
+                }
+                final String ddl = "create index " + getIndexName(index.table, columns) + " on " + index.table + " (" + join(columns, ", ") + ")";
+                Suggestion s = result.get(ddl);
+                if (s == null) {
+                    s = new Suggestion(ddl);
+                    result.put(ddl, s);
+                }
+                s.add(usage);
+            }
+        }
+        final List<Suggestion> suggestions = new ArrayList<Suggestion>(result.values());
+        Collections.sort(suggestions, new Comparator<Suggestion>() {
+
+            @Override
+            public int compare(Suggestion o1, Suggestion o2) {
+                return Long.valueOf(o2.getTotalNanos()).compareTo(o1.getTotalNanos());
+            }
+        });
+        return suggestions;
+    }
+
+    /**
+     * @return the suggestions as a SQL script with the evidence as comments
+     */
+    public String getReport(SessionFactory sf) {
+        final StringBuilder sb = new StringBuilder();
+        for (Suggestion s : getSuggestions(sf)) {
+            sb.append(s).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void clear() {
+        usages.clear();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void add(SessionFactory sf, Usage usage, String property, Map<String, Index> indexes, int part) {
+        final AbstractEntityPersister persister = getPersister(sf, usage.getEntityClass(), property);
+        if (persister == null) {
+            return;
+        }
+        final String name = property.substring(property.lastIndexOf('.') + 1);
+        final String[] columns = name.equals(persister.getIdentifierPropertyName()) ? persister.getIdentifierColumnNames() : persister.getPropertyColumnNames(name);
+        if (columns == null) {
+            return;
+        }
+        Index index = indexes.get(persister.getTableName());
+        if (index == null) {
+            index = new Index(persister.getTableName(), persister.getIdentifierColumnNames());
+            indexes.put(index.table, index);
+        }
+        for (String column : columns) {
+            if (column != null) {
+                index.parts.get(part).add(column);
+            }
+        }
+    }
+
+    /**
+     * @return the persister of the entity owning the last property of the
+     * path, or null if the path goes through something but many-to-one
+     * associations
+     */
+    private AbstractEntityPersister getPersister(SessionFactory sf, Class<?> clazz, String property) {
+        try {
+            ClassMetadata metadata = sf.getClassMetadata(clazz);
+            final String[] path = property.split("[.]");
+            for (int i = 0; i < path.length - 1 && metadata != null; i++) {
+                final Type type = metadata.getPropertyType(path[i]);
+                if (!type.isEntityType()) {
+                    return null;
+                }
+                metadata = sf.getClassMetadata(((EntityType) type).getAssociatedEntityName());
+            }
+            return (metadata instanceof AbstractEntityPersister) ? (AbstractEntityPersister) metadata : null;
+        } catch (HibernateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the index name, cut to {@link #MAX_INDEX_NAME} characters with a
+     * hash of the full name appended so cut names stay distinct
+     */
+    private static String getIndexName(String table, List<String> columns) {
+        final String name = ("ix_" + table + "_" + join(columns, "_")).toLowerCase().replaceAll("[^a-z0-9_]", "");
+        if (name.length() <= MAX_INDEX_NAME) {
+            return name;
+        }
+        final String hash = String.format("%08x", name.hashCode());
+        return name.substring(0, MAX_INDEX_NAME - hash.length() - 1) + "_" + hash;
+    }
+
+    private static String join(Iterable<?> items, String separator) {
+        final StringBuilder sb = new StringBuilder();
+        for (Object item : items) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(item);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Columns of a suggested index: equality, sort and range parts
+     */
+    private static class Index {
+
+        private final String table;
+        private final List<String> primaryKey;
+        private final List<Set<String>> parts = new ArrayList<Set<String>>();
+
+        Index(String table, String[] primaryKey) {
+            this.table = table;
+            this.primaryKey = (primaryKey == null) ? Collections.<String>emptyList() : Arrays.asList(primaryKey);
+            for (int i = 0; i < 3; i++) {
+                parts.add(new LinkedHashSet<String>());
+            }
+        }
+
+        List<String> getColumns() {
+            final Set<String> columns = new LinkedHashSet<String>(parts.get(0));
+            columns.addAll(parts.get(1));
+            //Only the first range column can use the index
+            for (String column : parts.get(2)) {
+                if (columns.add(column)) {
+                    break;
+                }
+            }
+            return new ArrayList<String>(columns);
+        }
+    }
+
+    /**
+     * A query shape and its timings
+     */
+    public static class Usage {
+
+        private final Class<?> entityClass;
+        private final Map<String, FilterOperation> conditions;
+        private final String sortProperty;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        public Usage(Class<?> entityClass, Map<String, FilterOperation> conditions, String sortProperty) {
+            this.entityClass = entityClass;
+            this.conditions = conditions;
+            this.sortProperty = sortProperty;
+        }
+
+        synchronized void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * @return count, total and max nanos taken at once
+         */
+        public synchronized long[] getTimings() {
+            return new long[]{count, totalNanos, maxNanos};
+        }
+
+        public Class<?> getEntityClass() {
+            return entityClass;
+        }
+
+        public Map<String, FilterOperation> getConditions() {
+            return conditions;
+        }
+
+        public String getSortProperty() {
+            return sortProperty;
+        }
+
+        public long getCount() {
+            return getTimings()[0];
+        }
+
+        public long getTotalNanos() {
+            return getTimings()[1];
+        }
+
+        public long getMaxNanos() {
+            return getTimings()[2];
+        }
+
+        @Override
+        public String toString() {
+            return entityClass.getSimpleName() + " " + conditions + ((sortProperty == null) ? "" : " order by " + sortProperty);
+        }
+    }
+
+    /**
+     * A suggested index and the queries it would serve, with their timings
+     * as they were when the suggestion was made
+     */
+    public static class Suggestion {
+
+        private final String ddl;
+        private final List<Usage> usages = new ArrayList<Usage>();
+        private final List<long[]> timings = new ArrayList<long[]>();
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        public Suggestion(String ddl) {
+            this.ddl = ddl;
+        }
+
+        void add(Usage usage) {
+            final long[] t = usage.getTimings();
+            usages.add(usage);
+            timings.add(t);
+            count += t[0];
+            totalNanos += t[1];
+            maxNanos = Math.max(maxNanos, t[2]);
+        }
+
+        public String getDdl() {
+            return ddl;
+        }
+
+        public List<Usage> getUsages() {
+            return usages;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < usages.size(); i++) {
+                final long[] t = timings.get(i);
+                final long avg = (t[0] == 0) ? 0 : t[1] / t[0];
+                sb.append("-- ").append(usages.get(i)).append(": ").append(t[0]).append(" queries, ");
+                sb.append(avg / 1000000).append(" ms avg, ");
+                sb.append(t[2] / 1000000).append(" ms max\n");
+            }
+            return sb.append(ddl).append(';').toString();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * Base for text searches answered by an external index (for example an
+ * embedded Lucene index kept in sync through the write notifications). The
+ * index returns the identifiers of the matching items and the filter becomes
+ * an IN restriction on them, so the items are fetched by primary key.
+ */
+public abstract class DBIndexTextSearch implements DBTextSearch {
+
+    private String idProperty = "id";
+    private int maxResults = 10000;
+
+    /**
+     * @return the identifiers of the items of the entity whose property
+     * contains the text, at most maxResults, or null if the property is not
+     * indexed
+     */
+    protected abstract Collection<?> search(Entity entity, String property, String text, int maxResults) throws PMException;
+
+    @Override
+    public Criterion getCriterion(Entity entity, String property, String text) throws PMException {
+        final Collection<?> ids = search(entity, property, text, getMaxResults());
+        if (ids == null) {
+            return null;
+        }
+        if (ids.isEmpty()) {
+            return Restrictions.sqlRestriction("1=0");
+        }
+        //Split the identifiers so no IN list goes over the database limits
+        final Disjunction result = Restrictions.disjunction();
+        final List<Object> chunk = new ArrayList<Object>(DataAccessDB.IN_CHUNK_SIZE);
+        for (Object id : ids) {
+            chunk.add(id);
+            if (chunk.size() == DataAccessDB.IN_CHUNK_SIZE) {
+                result.add(Restrictions.in(getIdProperty(), new ArrayList<Object>(chunk)));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            result.add(Restrictions.in(getIdProperty(), chunk));
+        }
+        return result;
+    }
+
+    /**
+     * Identifier property of the indexed entities, "id" by default
+     */
+    public void setIdProperty(String idProperty) {
+        this.idProperty = idProperty;
+    }
+
+    public String getIdProperty() {
+        return idProperty;
+    }
+
+    /**
+     * Maximum number of identifiers taken from the index
+     */
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+}
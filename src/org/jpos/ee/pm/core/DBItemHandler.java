@@ -0,0 +1,32 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+/**
+ * Receives the items of a streamed listing one at a time.
+ *
+ * @see DataAccessDB#scroll(PMContext, EntityFilter, ListSort, DBItemHandler)
+ */
+public interface DBItemHandler {
+
+    /**
+     * Process one item. The item is evicted from the session once this
+     * method returns, so it must not be kept nor lazily navigated later.
+     */
+    void handle(PMContext ctx, Object item) throws PMException;
+}
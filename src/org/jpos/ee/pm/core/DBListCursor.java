@@ -0,0 +1,113 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.io.Serializable;
+
+/**
+ * Position of a keyset (seek) paginated listing. It remembers the sort key
+ * and the identifier of the last item returned so the next page can be
+ * requested with a "greater than" restriction instead of an offset. The
+ * offset is tracked too and used when the sort can not be seeked.
+ *
+ * A cursor belongs to a single filter; reset it when the filter changes.
+ *
+ * @see DataAccessDB#listNext(PMContext, EntityFilter, ListSort, DBListCursor, Integer)
+ */
+public class DBListCursor implements Serializable {
+
+    private static final long serialVersionUID = 6021837719624418510L;
+    private int from;
+    private boolean keyed;
+    private String sortProperty;
+    private boolean ascending;
+    private Object lastSortValue;
+    private Serializable lastId;
+
+    public DBListCursor() {
+        super();
+        reset();
+    }
+
+    /**
+     * Go back to the first page
+     */
+    public final void reset() {
+        from = 0;
+        keyed = false;
+        sortProperty = null;
+        ascending = true;
+        lastSortValue = null;
+        lastId = null;
+    }
+
+    /**
+     * @return true if the cursor holds a key taken with the given sort
+     */
+    public boolean hasKey(String property, boolean asc) {
+        if (!keyed || lastId == null || asc != ascending) {
+            return false;
+        }
+        return (property == null) ? sortProperty == null : property.equals(sortProperty);
+    }
+
+    /**
+     * Move the cursor after the last item of a keyset page
+     */
+    public void moveTo(String property, boolean asc, Object sortValue, Serializable id, int read) {
+        this.keyed = true;
+        this.sortProperty = property;
+        this.ascending = asc;
+        this.lastSortValue = sortValue;
+        this.lastId = id;
+        this.from += read;
+    }
+
+    /**
+     * Move the cursor after an offset page
+     */
+    public void skip(int read) {
+        this.keyed = false;
+        this.lastSortValue = null;
+        this.lastId = null;
+        this.from += read;
+    }
+
+    /**
+     * @return the number of items already read
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    public String getSortProperty() {
+        return sortProperty;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public Object getLastSortValue() {
+        return lastSortValue;
+    }
+
+    public Serializable getLastId() {
+        return lastId;
+    }
+}
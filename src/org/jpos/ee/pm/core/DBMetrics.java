@@ -0,0 +1,206 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jpos.util.Log;
+
+/**
+ * Latency histograms and row counts of the {@link DataAccessDB} operations,
+ * per entity and operation. Operations slower than slowQueryMillis are logged
+ * with their filter and sort.
+ *
+ * Measuring is disabled by default, and costs a volatile read per operation
+ * when disabled; enable it with setEnabled, through JMX or with
+ * -Djpospm.db.metrics=true.
+ */
+public class DBMetrics implements DBMetricsMBean {
+
+    public static final String LIST = "list";
+    public static final String COUNT = "count";
+    public static final String GET = "get";
+    public static final String REFRESH = "refresh";
+    public static final String ADD = "add";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    public static final String SCROLL = "scroll";
+    public static final String OBJECT_NAME = "org.jpos.ee.pm:type=DBMetrics";
+    private static final DBMetrics instance = new DBMetrics();
+    private final ConcurrentMap<String, DBHistogram> histograms = new ConcurrentHashMap<String, DBHistogram>();
+    private volatile boolean enabled = Boolean.getBoolean("jpospm.db.metrics");
+    private volatile long slowQueryMillis = 1000;
+    private volatile DBMetricsSink sink;
+
+    public static DBMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Register the metrics in the platform MBean server
+     */
+    public void register() throws PMException {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            throw new PMException(e);
+        }
+    }
+
+    /**
+     * Record a measured operation
+     *
+     * @param ctx the context, used to log slow operations
+     * @param entity the entity
+     * @param operation one of the operation constants
+     * @param nanos duration of the operation
+     * @param rows rows read or written
+     * @param filter the applied filter, may be null
+     * @param sort the applied sort, may be null
+     */
+    public void record(PMContext ctx, Entity entity, String operation, long nanos, long rows, EntityFilter filter, ListSort sort) {
+        if (!isEnabled()) {
+            return;
+        }
+        final String entityId = (entity == null) ? "?" : entity.getId();
+        getHistogram(entityId + "." + operation).record(nanos, rows);
+        final DBMetricsSink s = sink;
+        if (s != null) {
+            s.record(entityId, operation, nanos, rows);
+        }
+        if (nanos >= slowQueryMillis * 1000000 && ctx != null && ctx.getLog() != null) {
+            final Log log = ctx.getLog();
+            final StringBuilder sb = new StringBuilder("Slow ").append(operation).append(" of ").append(entityId);
+            sb.append(": ").append(nanos / 1000000).append(" ms, ").append(rows).append(" rows");
+            if (filter instanceof DBEntityFilter && !((DBEntityFilter) filter).isEmpty()) {
+                sb.append(", filter ").append(((DBEntityFilter) filter).getFilterKey());
+            }
+            if (sort != null && sort.isSorted()) {
+                sb.append(", sort ").append(sort.getFieldId()).append(' ').append(sort.getDirection());
+            }
+            log.warn(sb.toString());
+        }
+    }
+
+    private DBHistogram getHistogram(String key) {
+        DBHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            final DBHistogram created = new DBHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the histogram of an entity operation, null if never measured
+     */
+    public DBHistogram getHistogram(String entityId, String operation) {
+        return histograms.get(entityId + "." + operation);
+    }
+
+    @Override
+    public String[] getKeys() {
+        return new TreeMap<String, DBHistogram>(histograms).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getCount(String key) {
+        final DBHistogram h = histograms.get(key);
+        return (h == null) ? 0 : h.getCount();
+    }
+
+    @Override
+    public long getRows(String key) {
+        final DBHistogram h = histograms.get(key);
+        return (h == null) ? 0 : h.getRows();
+    }
+
+    @Override
+    public double getPercentileMillis(String key, double percentile) {
+        final DBHistogram h = histograms.get(key);
+        return (h == null) ? 0 : h.getPercentile(percentile) / 1000000d;
+    }
+
+    @Override
+    public String getReport() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, DBHistogram> entry : new TreeMap<String, DBHistogram>(histograms).entrySet()) {
+            final DBHistogram h = entry.getValue();
+            sb.append(entry.getKey()).append(": count=").append(h.getCount());
+            sb.append(" rows=").append(h.getRows());
+            sb.append(" mean=").append(toMillis(h.getMean()));
+            sb.append(" p50=").append(toMillis(h.getPercentile(50)));
+            sb.append(" p99=").append(toMillis(h.getPercentile(99)));
+            sb.append(" max=").append(toMillis(h.getMax())).append(" ms\n");
+        }
+        return sb.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000d);
+    }
+
+    @Override
+    public void reset() {
+        histograms.clear();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getSlowQueryMillis() {
+        return slowQueryMillis;
+    }
+
+    /**
+     * Operations at least this slow are logged, 1000 by default
+     */
+    @Override
+    public void setSlowQueryMillis(long slowQueryMillis) {
+        this.slowQueryMillis = slowQueryMillis;
+    }
+
+    public DBMetricsSink getSink() {
+        return sink;
+    }
+
+    public void setSink(DBMetricsSink sink) {
+        this.sink = sink;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+/**
+ * Receiver of every measured {@link DataAccessDB} operation, to forward them
+ * to an external metrics system. It is called on the thread running the
+ * operation so it must be fast.
+ *
+ * @see DBMetrics#setSink(DBMetricsSink)
+ */
+public interface DBMetricsSink {
+
+    /**
+     * @param entity the entity id
+     * @param operation the operation, such as "list" or "update"
+     * @param nanos duration of the operation
+     * @param rows rows read or written
+     */
+    void record(String entity, String operation, long nanos, long rows);
+}
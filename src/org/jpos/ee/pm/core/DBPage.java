@@ -0,0 +1,50 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.List;
+
+/**
+ * A page of a listing together with the total number of items.
+ *
+ * @see DataAccessDB#listWithTotal(PMContext, EntityFilter, ListSort, Integer, Integer)
+ */
+public class DBPage {
+
+    private final List<?> items;
+    private final Long total;
+
+    public DBPage(List<?> items, Long total) {
+        this.items = items;
+        this.total = total;
+    }
+
+    /**
+     * @return the items of the page
+     */
+    public List<?> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the number of items of the whole listing
+     */
+    public Long getTotal() {
+        return total;
+    }
+}
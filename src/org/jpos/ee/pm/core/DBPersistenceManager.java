@@ -18,11 +18,15 @@
 package org.jpos.ee.pm.core;
 
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.jpos.ee.DB;
 
 public class DBPersistenceManager implements PersistenceManager<Session> {
+    private DB db;
     private Session session;
+    private Session readSession;
+    private boolean transactionStarted;
 
     /**
      * @deprecated use getConnection to get an hibernate session instead.
@@ -36,16 +40,25 @@ public class DBPersistenceManager implements PersistenceManager<Session> {
 
     @Override
     public void finish(PMContext ctx){
-        try {
-            getConnection().close();
-        } catch (Exception e) {}
+        //The DB is given back once, even if finish is called again
+        final DB current = db;
+        db = null;
+        session = null;
+        if (current != null) {
+            try {
+                closeDB(ctx, current);
+            } catch (Exception e) {}
+        }
+        closeReadConnection();
     }
 
     @Override
     public void init(PMContext ctx) throws Exception {
         try {
-            final DB db = new DB(ctx.getLog());
-            this.session = db.open();
+            final DB opened = openDB(ctx);
+            this.db = opened;
+            this.session = opened.session();
+            this.transactionStarted = false;
             ctx.put(PM_DB, db); //kept for compatibility
         } catch (Exception e) {
             ctx.getPresentationManager().error(e);
@@ -56,17 +69,113 @@ public class DBPersistenceManager implements PersistenceManager<Session> {
     @Override
     public void rollback(PMContext ctx, Object transaction) throws Exception {
         ((Transaction) transaction).rollback();
-        getConnection().close();
+        final DB current = db;
+        db = null;
+        session = null;
+        if (current != null) {
+            discardDB(ctx, current);
+        }
         init(ctx);
     }
 
+    /**
+     * Open the DB used by a context
+     */
+    protected DB openDB(PMContext ctx) throws Exception {
+        final DB result = new DB(ctx.getLog());
+        result.open();
+        return result;
+    }
+
+    /**
+     * Done with the DB of a context
+     */
+    protected void closeDB(PMContext ctx, DB db) {
+        db.close();
+    }
+
+    /**
+     * Open a DB outside of the context lifecycle, for work done on other
+     * threads. It must be given back with {@link #closeDetached}.
+     */
+    public DB openDetached(PMContext ctx) throws Exception {
+        return openDB(ctx);
+    }
+
+    public void closeDetached(PMContext ctx, DB db) {
+        try {
+            closeDB(ctx, db);
+        } catch (Exception e) {}
+    }
+
+    /**
+     * Open a stateless session for bulk work. It has no first level cache nor
+     * dirty checking and uses its own connection and transaction; the caller
+     * must close it.
+     */
+    public StatelessSession openStatelessSession() {
+        return getConnection().getSessionFactory().openStatelessSession();
+    }
+
+    /**
+     * Done with the DB of a context that is not usable anymore
+     */
+    protected void discardDB(PMContext ctx, DB db) {
+        try {
+            db.close();
+        } catch (Exception e) {}
+    }
+
     @Override
     public Object startTransaction(PMContext ctx) throws Exception {
+        transactionStarted = true;
         return getConnection().beginTransaction();
     }
 
+    /**
+     * @return true if a transaction was started in this context
+     */
+    public boolean isTransactionStarted() {
+        return transactionStarted;
+    }
+
     @Override
     public Session getConnection() {
         return session;
     }
+
+    /**
+     * Session for read only operations. It is bound to the read replica when
+     * one is configured (see {@link DBReplica}) and no transaction was started
+     * in this context; otherwise it is the primary session, so reads made
+     * after a write see it.
+     */
+    public Session getReadConnection() {
+        if (transactionStarted || !DBReplica.isEnabled()) {
+            return getConnection();
+        }
+        if (readSession == null || !readSession.isOpen()) {
+            readSession = DBReplica.openSession();
+        }
+        return readSession;
+    }
+
+    /**
+     * Detach an object read from the replica so it can be written through the
+     * primary session
+     */
+    public void detachFromReadConnection(Object o) {
+        if (readSession != null && readSession != session && readSession.isOpen() && readSession.contains(o)) {
+            readSession.evict(o);
+        }
+    }
+
+    private void closeReadConnection() {
+        if (readSession != null) {
+            try {
+                readSession.close();
+            } catch (Exception e) {}
+            readSession = null;
+        }
+    }
 }
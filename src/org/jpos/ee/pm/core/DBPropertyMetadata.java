@@ -0,0 +1,205 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+/**
+ * Types of the mapped properties of an entity class, taken once from the
+ * hibernate metadata (so inherited properties are included), used to turn
+ * the string values of lookups into typed, bound restrictions.
+ */
+public class DBPropertyMetadata {
+
+    private static final ConcurrentMap<Class<?>, DBPropertyMetadata> cache = new ConcurrentHashMap<Class<?>, DBPropertyMetadata>();
+    private static final Pattern COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+    private final String identifier;
+    private final Class<?> identifierClass;
+    private final Map<String, Class<?>> types;
+    private final Map<String, String> references;
+
+    protected DBPropertyMetadata(SessionFactory sf, ClassMetadata metadata) {
+        this.identifier = metadata.getIdentifierPropertyName();
+        this.identifierClass = metadata.getIdentifierType().getReturnedClass();
+        this.types = new HashMap<String, Class<?>>();
+        this.references = new HashMap<String, String>();
+        if (identifier != null) {
+            types.put(identifier, identifierClass);
+        }
+        final String[] names = metadata.getPropertyNames();
+        final Type[] propertyTypes = metadata.getPropertyTypes();
+        for (int i = 0; i < names.length; i++) {
+            final Type type = propertyTypes[i];
+            if (type.isEntityType()) {
+                //Looked up by the identifier of the referenced entity
+                final ClassMetadata target = sf.getClassMetadata(((EntityType) type).getAssociatedEntityName());
+                if (target != null && target.getIdentifierPropertyName() != null) {
+                    types.put(names[i], target.getIdentifierType().getReturnedClass());
+                    references.put(names[i], names[i] + "." + target.getIdentifierPropertyName());
+                }
+            } else if (!type.isAssociationType() && !type.isComponentType()) {
+                types.put(names[i], type.getReturnedClass());
+            }
+        }
+    }
+
+    /**
+     * @return the metadata of a mapped class, built the first time
+     */
+    public static DBPropertyMetadata get(SessionFactory sf, Class<?> clazz) throws PMException {
+        DBPropertyMetadata result = cache.get(clazz);
+        if (result == null) {
+            final ClassMetadata metadata = sf.getClassMetadata(clazz);
+            if (metadata == null) {
+                throw new PMException("Unmapped entity class " + clazz.getName());
+            }
+            result = new DBPropertyMetadata(sf, metadata);
+            cache.put(clazz, result);
+        }
+        return result;
+    }
+
+    /**
+     * Restriction "property = value" with the value parsed to the property
+     * type. Properties that are not mapped (or of unsupported types) are
+     * compared in SQL against the value bound as a string.
+     */
+    public Criterion getRestriction(String property, String value) throws PMException {
+        final Class<?> type = types.get(property);
+        final Object parsed = (type == null) ? null : parse(type, value);
+        if (parsed != null) {
+            final String path = references.containsKey(property) ? references.get(property) : property;
+            return Restrictions.eq(path, parsed);
+        }
+        if (!COLUMN.matcher(property).matches()) {
+            throw new PMException("Invalid property " + property);
+        }
+        return Restrictions.sqlRestriction(property + " = ?", value, Hibernate.STRING);
+    }
+
+    /**
+     * @return the identifier property name, null if there is none
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public Class<?> getIdentifierClass() {
+        return identifierClass;
+    }
+
+    /**
+     * @return the class of a mapped property or null if it is not mapped
+     */
+    public Class<?> getType(String property) {
+        return types.get(property);
+    }
+
+    /**
+     * Parse a string into an instance of the given type
+     *
+     * @return the value or null if the type is not supported
+     */
+    @SuppressWarnings("unchecked")
+    public static Object parse(Class<?> type, String value) throws PMException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (type.equals(String.class)) {
+                return value;
+            } else if (type.equals(Long.class) || type.equals(long.class)) {
+                return Long.valueOf(value.trim());
+            } else if (type.equals(Integer.class) || type.equals(int.class)) {
+                return Integer.valueOf(value.trim());
+            } else if (type.equals(Short.class) || type.equals(short.class)) {
+                return Short.valueOf(value.trim());
+            } else if (type.equals(Byte.class) || type.equals(byte.class)) {
+                return Byte.valueOf(value.trim());
+            } else if (type.equals(Double.class) || type.equals(double.class)) {
+                return Double.valueOf(value.trim());
+            } else if (type.equals(Float.class) || type.equals(float.class)) {
+                return Float.valueOf(value.trim());
+            } else if (type.equals(Boolean.class) || type.equals(boolean.class)) {
+                final String v = value.trim();
+                return Boolean.valueOf(Boolean.parseBoolean(v) || "Y".equalsIgnoreCase(v) || "1".equals(v));
+            } else if (type.equals(Character.class) || type.equals(char.class)) {
+                return value.length() == 0 ? null : Character.valueOf(value.charAt(0));
+            } else if (type.equals(BigDecimal.class)) {
+                return new BigDecimal(value.trim());
+            } else if (type.equals(BigInteger.class)) {
+                return new BigInteger(value.trim());
+            } else if (Date.class.isAssignableFrom(type)) {
+                return parseDate((Class<? extends Date>) type, value.trim());
+            } else if (type.isEnum()) {
+                final String v = value.trim();
+                if (INTEGER.matcher(v).matches()) {
+                    return type.getEnumConstants()[Integer.parseInt(v)];
+                }
+                return Enum.valueOf(type.asSubclass(Enum.class), v);
+            }
+        } catch (RuntimeException e) {
+            throw new PMException("Invalid value " + value + " for " + type.getName(), e);
+        }
+        return null;
+    }
+
+    private static Date parseDate(Class<? extends Date> type, String value) throws PMException {
+        long millis = -1;
+        if (INTEGER.matcher(value).matches()) {
+            millis = Long.parseLong(value);
+        } else {
+            for (String format : DATE_FORMATS) {
+                try {
+                    millis = new SimpleDateFormat(format).parse(value).getTime();
+                    break;
+                } catch (ParseException e) {
+                }
+            }
+        }
+        if (millis == -1) {
+            throw new PMException("Invalid date " + value);
+        }
+        if (type.equals(java.sql.Timestamp.class)) {
+            return new java.sql.Timestamp(millis);
+        } else if (type.equals(java.sql.Date.class)) {
+            return new java.sql.Date(millis);
+        } else if (type.equals(java.sql.Time.class)) {
+            return new java.sql.Time(millis);
+        }
+        return new Date(millis);
+    }
+}
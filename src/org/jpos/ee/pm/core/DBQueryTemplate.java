@@ -0,0 +1,114 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jpos.ee.pm.core.exception.EntityClassNotFoundException;
+
+/**
+ * Query plan of an entity compiled once and reused by every criteria built
+ * for it: the resolved entity class, the properties of its fields and the
+ * aliases needed to reach each nested property.
+ *
+ * Templates are kept by entity id. When an entity definition is reloaded
+ * the template of the previous definition is replaced the next time it is
+ * asked for, so old definitions and their classes are not retained.
+ */
+public class DBQueryTemplate {
+
+    private static final String[] NO_ALIASES = new String[0];
+    private static final ConcurrentMap<String, DBQueryTemplate> templates = new ConcurrentHashMap<String, DBQueryTemplate>();
+    private final Entity entity;
+    private final Class<?> entityClass;
+    private final ConcurrentMap<String, String[]> aliases;
+    private final ConcurrentMap<String, String> properties;
+
+    protected DBQueryTemplate(Entity entity) throws PMException {
+        this.entity = entity;
+        try {
+            this.entityClass = Class.forName(entity.getClazz());
+        } catch (ClassNotFoundException e) {
+            throw new EntityClassNotFoundException();
+        }
+        this.aliases = new ConcurrentHashMap<String, String[]>();
+        this.properties = new ConcurrentHashMap<String, String>();
+    }
+
+    /**
+     * @return the template of the entity, compiling it the first time
+     */
+    public static DBQueryTemplate get(Entity entity) throws PMException {
+        DBQueryTemplate t = templates.get(entity.getId());
+        if (t == null || t.entity != entity) {
+            t = new DBQueryTemplate(entity);
+            templates.put(entity.getId(), t);
+        }
+        return t;
+    }
+
+    /**
+     * Drop the template of an entity, for example when it is reloaded
+     */
+    public static void remove(String entityId) {
+        templates.remove(entityId);
+    }
+
+    public static void clear() {
+        templates.clear();
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return the aliases to create, in order, before using the property.
+     * "a.b.c" needs "a" and "b".
+     */
+    public String[] getAliases(String property) {
+        String[] result = aliases.get(property);
+        if (result == null) {
+            final String[] split = property.split("[.]");
+            if (split.length == 1) {
+                result = NO_ALIASES;
+            } else {
+                result = new String[split.length - 1];
+                System.arraycopy(split, 0, result, 0, result.length);
+            }
+            aliases.put(property, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the property of a field of the entity
+     */
+    public String getProperty(String fieldId) throws PMException {
+        String result = properties.get(fieldId);
+        if (result == null) {
+            final Field field = entity.getFieldById(fieldId);
+            if (field == null) {
+                throw new PMException("Undefined field " + fieldId);
+            }
+            result = field.getProperty();
+            properties.put(fieldId, result);
+        }
+        return result;
+    }
+}
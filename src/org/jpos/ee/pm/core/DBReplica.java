@@ -0,0 +1,75 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+
+/**
+ * Session factory of the read replica. It is built from the hibernate
+ * configuration resource named by the {@value #CONFIG_PROPERTY} system
+ * property (or given to {@link #configure(String)}), usually a copy of the
+ * main one pointing to the replica datasource. Without it every read goes to
+ * the primary database.
+ */
+public final class DBReplica {
+
+    public static final String CONFIG_PROPERTY = "jpospm.db.replica";
+    private static volatile SessionFactory sessionFactory;
+    private static volatile boolean initialized;
+
+    private DBReplica() {
+    }
+
+    /**
+     * Build the replica session factory from a hibernate configuration resource
+     */
+    public static synchronized void configure(String resource) {
+        final SessionFactory old = sessionFactory;
+        sessionFactory = (resource == null) ? null : new AnnotationConfiguration().configure(resource).buildSessionFactory();
+        initialized = true;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return true if reads can be routed to a replica
+     */
+    public static boolean isEnabled() {
+        if (!initialized) {
+            synchronized (DBReplica.class) {
+                if (!initialized) {
+                    configure(System.getProperty(CONFIG_PROPERTY));
+                }
+            }
+        }
+        return sessionFactory != null;
+    }
+
+    /**
+     * @return a new session on the replica
+     */
+    public static Session openSession() {
+        if (!isEnabled()) {
+            throw new IllegalStateException("No read replica configured");
+        }
+        return sessionFactory.openSession();
+    }
+}
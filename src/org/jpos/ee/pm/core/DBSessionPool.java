@@ -0,0 +1,200 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jpos.ee.DB;
+import org.jpos.util.Log;
+
+/**
+ * Bounded pool of open {@link DB} sessions. At most maxSize sessions are in
+ * use at the same time and up to maxIdle are kept open between uses, cleared
+ * of any state left by the previous user.
+ *
+ * Sessions only hold a JDBC connection while in a transaction (hibernate
+ * default release mode), so a connection pool such as c3p0 should back the
+ * hibernate configuration.
+ */
+public class DBSessionPool {
+
+    private final BlockingQueue<DB> idle;
+    private final Semaphore permits;
+    private final long timeout;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong releaseNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of sessions in use
+     * @param maxIdle maximum number of sessions kept open between uses
+     * @param timeout milliseconds to wait for a session when all are in use
+     */
+    public DBSessionPool(int maxSize, int maxIdle, long timeout) {
+        this.idle = new ArrayBlockingQueue<DB>(Math.max(1, maxIdle));
+        this.permits = new Semaphore(maxSize, true);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Take an open session, reusing an idle one if possible
+     */
+    public DB acquire(Log log) throws Exception {
+        final long start = System.nanoTime();
+        if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new PMException("DB session pool exhausted");
+        }
+        try {
+            DB db = idle.poll();
+            while (db != null && !db.session().isOpen()) {
+                db = idle.poll();
+            }
+            if (db == null) {
+                db = new DB(log);
+                db.open();
+                created.incrementAndGet();
+            }
+            record(acquired, acquireNanos, start);
+            updateMax(System.nanoTime() - start);
+            return db;
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a session. It is kept for reuse if it is still open, outside
+     * a transaction and there is room, otherwise it is closed.
+     */
+    public void release(DB db) {
+        final long start = System.nanoTime();
+        try {
+            final Session s = db.session();
+            if (s != null && s.isOpen() && !inTransaction(s)) {
+                s.clear();
+                s.setFlushMode(FlushMode.AUTO);
+                s.setCacheMode(CacheMode.NORMAL);
+                if (idle.offer(db)) {
+                    return;
+                }
+            }
+            close(db);
+        } finally {
+            permits.release();
+            record(released, releaseNanos, start);
+        }
+    }
+
+    /**
+     * Close a session that must not be reused, for example after a rollback
+     */
+    public void discard(DB db) {
+        try {
+            close(db);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close every idle session
+     */
+    public void clear() {
+        DB db;
+        while ((db = idle.poll()) != null) {
+            close(db);
+        }
+    }
+
+    private boolean inTransaction(Session s) {
+        final Transaction tx = s.getTransaction();
+        return tx != null && tx.isActive();
+    }
+
+    private void close(DB db) {
+        try {
+            db.close();
+        } catch (Exception e) {
+        }
+    }
+
+    private void record(AtomicLong count, AtomicLong nanos, long start) {
+        count.incrementAndGet();
+        nanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private void updateMax(long elapsed) {
+        long max;
+        do {
+            max = maxAcquireNanos.get();
+        } while (elapsed > max && !maxAcquireNanos.compareAndSet(max, elapsed));
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return the number of sessions opened by the pool
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     * @return mean acquire latency in microseconds
+     */
+    public long getMeanAcquireMicros() {
+        final long n = acquired.get();
+        return (n == 0) ? 0 : acquireNanos.get() / n / 1000;
+    }
+
+    /**
+     * @return worst acquire latency in microseconds
+     */
+    public long getMaxAcquireMicros() {
+        return maxAcquireNanos.get() / 1000;
+    }
+
+    /**
+     * @return mean release latency in microseconds
+     */
+    public long getMeanReleaseMicros() {
+        final long n = released.get();
+        return (n == 0) ? 0 : releaseNanos.get() / n / 1000;
+    }
+}
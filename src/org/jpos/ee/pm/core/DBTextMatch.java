@@ -0,0 +1,162 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.LikeExpression;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.TypedValue;
+
+/**
+ * How the LIKE filter of a text field matches. CONTAINS is the default case
+ * insensitive "%text%" match; the other ones can use an index:
+ *
+ * PREFIX: column like 'text%', served by a plain index (on PostgreSQL one
+ * with text_pattern_ops unless the database uses the C collation).
+ *
+ * PREFIX_IGNORE_CASE: lower(column) like 'text%', served by an index on
+ * lower(column).
+ *
+ * EXACT_IGNORE_CASE: lower(column) = 'text', served by an index on
+ * lower(column).
+ *
+ * TRIGRAM: column % 'text' on PostgreSQL, a pg_trgm similarity match served
+ * by a gin_trgm_ops index; CONTAINS elsewhere.
+ *
+ * @see DBEntityFilter#setTextMatch(String, DBTextMatch)
+ */
+public enum DBTextMatch {
+
+    CONTAINS {
+
+        @Override
+        public Criterion getCriterion(String property, String value) {
+            return null;
+        }
+    },
+    PREFIX {
+
+        @Override
+        public Criterion getCriterion(String property, String value) {
+            return new PrefixExpression(property, value, false);
+        }
+    },
+    PREFIX_IGNORE_CASE {
+
+        @Override
+        public Criterion getCriterion(String property, String value) {
+            return new PrefixExpression(property, value, true);
+        }
+    },
+    EXACT_IGNORE_CASE {
+
+        @Override
+        public Criterion getCriterion(String property, String value) {
+            return Restrictions.eq(property, value).ignoreCase();
+        }
+    },
+    TRIGRAM {
+
+        @Override
+        public Criterion getCriterion(String property, String value) {
+            return new TrigramExpression(property, value);
+        }
+    };
+    /**
+     * Escape character of the LIKE patterns. A backslash would clash with
+     * MySQL string literals.
+     */
+    public static final char ESCAPE = '!';
+
+    /**
+     * @return the restriction of the property, or null to use the default
+     * LIKE handling
+     */
+    public abstract Criterion getCriterion(String property, String value);
+
+    /**
+     * @return the value with the LIKE wildcards escaped
+     */
+    public static String escape(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (char c : value.toCharArray()) {
+            if (c == ESCAPE || c == '%' || c == '_') {
+                sb.append(ESCAPE);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Anchored LIKE with the wildcards of the value escaped
+     */
+    protected static class PrefixExpression extends LikeExpression {
+
+        private static final long serialVersionUID = 4518736227350114021L;
+
+        public PrefixExpression(String property, String value, boolean ignoreCase) {
+            super(property, escape(value) + "%", Character.valueOf(ESCAPE), ignoreCase);
+        }
+    }
+
+    /**
+     * pg_trgm similarity on PostgreSQL, case insensitive contains elsewhere
+     */
+    protected static class TrigramExpression implements Criterion {
+
+        private static final long serialVersionUID = -6342209937617283845L;
+        private final String property;
+        private final String value;
+
+        public TrigramExpression(String property, String value) {
+            this.property = property;
+            this.value = value;
+        }
+
+        @Override
+        public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+            final String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, property);
+            if (columns.length != 1) {
+                throw new HibernateException("Trigram match needs a single column property: " + property);
+            }
+            return isTrigram(criteriaQuery) ? columns[0] + " % ?" : "lower(" + columns[0] + ") like ?";
+        }
+
+        @Override
+        public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+            final String v = isTrigram(criteriaQuery) ? value : "%" + value.toLowerCase() + "%";
+            return new TypedValue[]{new TypedValue(Hibernate.STRING, v, EntityMode.POJO)};
+        }
+
+        private boolean isTrigram(CriteriaQuery criteriaQuery) {
+            return criteriaQuery.getFactory().getDialect() instanceof PostgreSQLDialect;
+        }
+
+        @Override
+        public String toString() {
+            return property + " % " + value;
+        }
+    }
+}
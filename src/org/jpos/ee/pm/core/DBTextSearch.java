@@ -0,0 +1,50 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import org.hibernate.criterion.Criterion;
+
+/**
+ * Text search backend for LIKE filters. By default a LIKE filter is a case
+ * insensitive "contains" match that can not use an index; a text search
+ * turns it into something the database (or an external index) can answer
+ * fast.
+ *
+ * The write notifications are sent by {@link DataAccessDB} when an item is
+ * written, before the transaction commits, so backends keeping their own
+ * index must tolerate items that end up rolled back.
+ *
+ * @see DataAccessDB#setTextSearch(DBTextSearch)
+ */
+public interface DBTextSearch {
+
+    /**
+     * @param entity the filtered entity
+     * @param property the filtered property, possibly a path through aliases
+     * @param text the text typed by the user
+     * @return a restriction matching the items whose property contains the
+     * text, or null to use the default LIKE
+     */
+    Criterion getCriterion(Entity entity, String property, String text) throws PMException;
+
+    void added(Entity entity, Object item) throws PMException;
+
+    void updated(Entity entity, Object item) throws PMException;
+
+    void deleted(Entity entity, Object item) throws PMException;
+}
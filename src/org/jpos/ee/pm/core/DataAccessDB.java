@@ -17,74 +17,194 @@
  */
 package org.jpos.ee.pm.core;
 
-import java.lang.reflect.Field;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
-import org.jpos.ee.pm.core.exception.EntityClassNotFoundException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.impl.CriteriaImpl;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.Type;
 
 /**
  * Data access using an hibernate session
  */
 public class DataAccessDB implements DataAccess, PMCoreConstants {
 
+    /**
+     * Default JDBC fetch size for streamed listings
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    /**
+     * Maximum number of keys in a single IN restriction
+     */
+    public static final int IN_CHUNK_SIZE = 500;
+    /**
+     * Default number of items written between session flushes in batched
+     * writes. Should match hibernate.jdbc.batch_size.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    private static final ThreadLocal<Session> boundSession = new ThreadLocal<Session>();
     private Entity entity;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private long countCacheTTL = 0;
+    private boolean approximateCount = false;
+    private boolean replicaReads = true;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private DBTextSearch textSearch;
+    private final Map<String, DBTextMatch> textMatches = new HashMap<String, DBTextMatch>();
 
     @Override
     public Object getItem(PMContext ctx, String property, String value) throws PMException {
         try {
             /*
-             * To avoid the use of SQL restriction that use column name we introspect
-             * the property type and parse it. It work for some basics for now
-             * until we find a better way.
-             *
-             * If we get an error or the type is not a Long, Integer, Boolean nor String,
-             * we try the old way.
+             * The property type comes from the hibernate metadata of the
+             * entity class, cached by DBPropertyMetadata, so the value is
+             * always bound as a typed parameter.
              */
-            final Session db = getDb(ctx);
-            final Class<?> clazz = Class.forName(getEntity().getClazz());
-            final Criteria c = db.createCriteria(clazz);
-            c.setMaxResults(1);
-            Criterion criterion = null;
-            try {
-                final Field f = clazz.getDeclaredField(property);
-                final Class<?> declaringClass = f.getType();
-                if (declaringClass.equals(Long.class)) {
-                    criterion = Restrictions.eq(property, Long.parseLong(value));
-                } else if (declaringClass.equals(Integer.class)) {
-                    criterion = Restrictions.eq(property, Integer.parseInt(value));
-                } else if (declaringClass.equals(String.class)) {
-                    criterion = Restrictions.eq(property, value);
-                } else if (declaringClass.equals(Boolean.class)) {
-                    criterion = Restrictions.eq(property, Boolean.parseBoolean(value));
-                }
-            } catch (NoSuchFieldException e) {
-                criterion = Restrictions.sqlRestriction(property + "=" + value);
-            }
-            if (criterion == null) {
-                criterion = Restrictions.sqlRestriction(property + "=" + value);
+            final long start = startTiming();
+            final Session db = getReadDb(ctx);
+            final Class<?> clazz = DBQueryTemplate.get(getEntity()).getEntityClass();
+            final DBPropertyMetadata metadata = DBPropertyMetadata.get(db.getSessionFactory(), clazz);
+            Object result = null;
+            final Object id = property.equals(metadata.getIdentifier()) ? DBPropertyMetadata.parse(metadata.getIdentifierClass(), value) : null;
+            if (id instanceof Serializable) {
+                //Served from the session or the second level cache if possible
+                result = db.get(clazz, (Serializable) id);
+            } else {
+                final Criteria c = db.createCriteria(clazz);
+                c.setMaxResults(1);
+                c.add(metadata.getRestriction(property, value));
+                result = c.uniqueResult();
             }
-            c.add(criterion);
-            return c.uniqueResult();
+            recordTiming(ctx, DBMetrics.GET, null, null, start, (result == null) ? 0 : 1);
+            return result;
+        } catch (PMException e) {
+            throw e;
         } catch (Exception e) {
             throw new PMException(e);
         }
     }
 
+    /**
+     * Load many items by identifier with IN queries of up to
+     * {@link #IN_CHUNK_SIZE} keys each.
+     *
+     * @return the items found, in the order of the given identifiers
+     */
+    public List<?> getItems(PMContext ctx, List<String> ids) throws PMException {
+        final Session db = getReadDb(ctx);
+        final Class<?> clazz = DBQueryTemplate.get(getEntity()).getEntityClass();
+        final DBPropertyMetadata metadata = DBPropertyMetadata.get(db.getSessionFactory(), clazz);
+        if (metadata.getIdentifier() == null) {
+            throw new PMException("No identifier property in " + clazz.getName());
+        }
+        final List<Object> keys = new ArrayList<Object>();
+        for (String id : ids) {
+            keys.add(DBPropertyMetadata.parse(metadata.getIdentifierClass(), id));
+        }
+        final long start = startTiming();
+        final Map<Object, Object> found = new HashMap<Object, Object>();
+        try {
+            for (int i = 0; i < keys.size(); i += IN_CHUNK_SIZE) {
+                final List<Object> chunk = keys.subList(i, Math.min(keys.size(), i + IN_CHUNK_SIZE));
+                final Criteria c = db.createCriteria(clazz);
+                c.add(Restrictions.in(metadata.getIdentifier(), chunk));
+                for (Object item : c.list()) {
+                    found.put(db.getIdentifier(item), item);
+                }
+            }
+        } catch (HibernateException e) {
+            throw new PMException(e);
+        }
+        final List<Object> result = new ArrayList<Object>();
+        for (Object key : keys) {
+            final Object item = found.get(key);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        recordTiming(ctx, DBMetrics.GET, null, null, start, result.size());
+        return result;
+    }
+
     /**
      * Get hibernate session from the context
      */
     protected Session getDb(PMContext ctx) {
+        final Session bound = boundSession.get();
+        if (bound != null) {
+            return bound;
+        }
         return (Session) ctx.getPersistenceManager().getConnection();
     }
 
+    /**
+     * Get the hibernate session for read only operations. It may be bound to
+     * a read replica unless replica reads are disabled for this entity.
+     */
+    protected Session getReadDb(PMContext ctx) {
+        final Session bound = boundSession.get();
+        if (bound != null) {
+            return bound;
+        }
+        if (isReplicaReads() && ctx.getPersistenceManager() instanceof DBPersistenceManager) {
+            return ((DBPersistenceManager) ctx.getPersistenceManager()).getReadConnection();
+        }
+        return getDb(ctx);
+    }
+
+    /**
+     * Make every data access on this thread use the given session instead of
+     * the context one, see {@link DataAccessDBAsync}
+     */
+    static void bindSession(Session session) {
+        boundSession.set(session);
+    }
+
+    static void unbindSession() {
+        boundSession.remove();
+    }
+
+    /**
+     * Objects read from a replica must leave its session before being written
+     */
+    protected void detach(PMContext ctx, Object object) {
+        if (ctx.getPersistenceManager() instanceof DBPersistenceManager) {
+            ((DBPersistenceManager) ctx.getPersistenceManager()).detachFromReadConnection(object);
+        }
+    }
+
     @Override
     public List<?> list(PMContext ctx, EntityFilter filter, ListSort sort, Integer from, Integer count) throws PMException {
         //We use the filter only if the entity we use is the container one.
@@ -95,52 +215,820 @@ public class DataAccessDB implements DataAccess, PMCoreConstants {
         if (from != null) {
             list.setFirstResult(from);
         }
-        return list.list();
+        final long start = startTiming();
+        final List<?> result = list.list();
+        recordTiming(ctx, DBMetrics.LIST, filter, sort, start, result.size());
+        return result;
+    }
+
+    /**
+     * Lists a page and counts the whole listing building the criteria only
+     * once. The page query runs first and, when it is not the last page, the
+     * same criteria is turned into the count query. When the page turns out to
+     * be the last one the total is known without counting. A sort on an
+     * association joins it, which would drop the items without one from the
+     * count, so those sorts get a count criteria of their own.
+     */
+    public DBPage listWithTotal(PMContext ctx, EntityFilter filter, ListSort sort, Integer from, Integer count) throws PMException {
+        final Criteria c = createCriteria(ctx, getEntity(), filter, sort);
+        if (count != null) {
+            c.setMaxResults(count);
+        }
+        if (from != null) {
+            c.setFirstResult(from);
+        }
+        final long start = startTiming();
+        final List<?> items = c.list();
+        recordTiming(ctx, DBMetrics.LIST, filter, sort, start, items.size());
+        final int first = (from == null) ? 0 : from;
+        if ((count == null || items.size() < count) && (first == 0 || !items.isEmpty())) {
+            return new DBPage(items, Long.valueOf(first + items.size()));
+        }
+        return new DBPage(items, count(ctx, filter, isJoiningSort(sort) ? null : c));
+    }
+
+    /**
+     * @return true if the sort creates aliases, that is inner joins
+     */
+    protected boolean isJoiningSort(ListSort sort) throws PMException {
+        final String order = getOrderProperty(getEntity(), sort);
+        return order != null && DBQueryTemplate.get(getEntity()).getAliases(order).length > 0;
+    }
+
+    /**
+     * Streams every item matching the filter to the handler using a forward
+     * only cursor, without building a list. Each item is evicted from the
+     * session after being handled so heap usage does not grow with the number
+     * of rows, which makes this the way to go for full entity exports.
+     *
+     * @return the number of items handled
+     */
+    public long scroll(PMContext ctx, EntityFilter filter, ListSort sort, DBItemHandler handler) throws PMException {
+        final Session db = getReadDb(ctx);
+        final Criteria c = createCriteria(ctx, getEntity(), filter, sort);
+        c.setFetchSize(getFetchSize());
+        c.setReadOnly(true);
+        c.setCacheMode(CacheMode.IGNORE);
+        final long start = startTiming();
+        long count = 0;
+        final ScrollableResults results = c.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                final Object item = results.get(0);
+                try {
+                    handler.handle(ctx, item);
+                } finally {
+                    db.evict(item);
+                }
+                count++;
+            }
+        } finally {
+            results.close();
+        }
+        recordTiming(ctx, DBMetrics.SCROLL, filter, sort, start, count);
+        return count;
+    }
+
+    /**
+     * Keyset (seek) pagination. Returns the page that follows the given cursor
+     * and moves the cursor after it. Instead of skipping "from" rows, the page
+     * is restricted to the items whose sort key (and identifier, as a tie
+     * breaker) is greater than the last one read, so deep pages cost the same
+     * as the first one.
+     *
+     * Only sorts that are unique-safe can be seeked: the identifier or a non
+     * nullable, non association property of the entity itself. Any other
+     * sort falls back to offset pagination using the cursor position.
+     */
+    public List<?> listNext(PMContext ctx, EntityFilter filter, ListSort sort, DBListCursor cursor, Integer count) throws PMException {
+        final Entity e = getEntity();
+        final ClassMetadata metadata = getClassMetadata(ctx, e);
+        final String idProperty = metadata.getIdentifierPropertyName();
+        final String order = getOrderProperty(e, sort);
+        final boolean asc = isAscending(sort);
+        final boolean keyset = idProperty != null && isKeysetSafe(metadata, order);
+        final Criteria list = createCriteria(ctx, e, filter, sort);
+        if (keyset) {
+            if (!idProperty.equals(order)) {
+                list.addOrder(asc ? Order.asc(idProperty) : Order.desc(idProperty));
+            }
+            if (cursor.hasKey(order, asc)) {
+                list.add(getKeysetCriterion(order, idProperty, asc, cursor));
+            } else if (cursor.getFrom() > 0) {
+                list.setFirstResult(cursor.getFrom());
+            }
+        } else if (cursor.getFrom() > 0) {
+            list.setFirstResult(cursor.getFrom());
+        }
+        if (count != null) {
+            list.setMaxResults(count);
+        }
+        final long start = startTiming();
+        final List<?> result = list.list();
+        recordTiming(ctx, DBMetrics.LIST, filter, sort, start, result.size());
+        if (!result.isEmpty()) {
+            if (keyset) {
+                final Object last = result.get(result.size() - 1);
+                final Serializable id = getReadDb(ctx).getIdentifier(last);
+                final Object value = (order == null || order.equals(idProperty)) ? id : metadata.getPropertyValue(last, order, EntityMode.POJO);
+                cursor.moveTo(order, asc, value, id, result.size());
+            } else {
+                cursor.skip(result.size());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the current time if query timings are being recorded, 0
+     * otherwise
+     */
+    protected long startTiming() {
+        return (DBMetrics.getInstance().isEnabled() || DBIndexAdvisor.getInstance().isEnabled()) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time taken by an operation started at start in
+     * {@link DBMetrics} and, for lists and counts, {@link DBIndexAdvisor}
+     */
+    protected void recordTiming(PMContext ctx, String operation, EntityFilter filter, ListSort sort, long start, long rows) throws PMException {
+        if (start == 0) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        DBMetrics.getInstance().record(ctx, getEntity(), operation, nanos, rows, filter, sort);
+        if (DBMetrics.LIST.equals(operation) || DBMetrics.COUNT.equals(operation)) {
+            DBIndexAdvisor.getInstance().record(getEntity(), filter, getOrderProperty(getEntity(), sort), nanos);
+        }
+    }
+
+    /**
+     * A sort can be seeked if it is total once the identifier is appended and
+     * never yields null keys.
+     */
+    protected boolean isKeysetSafe(ClassMetadata metadata, String order) {
+        if (order == null || order.equals(metadata.getIdentifierPropertyName())) {
+            return true;
+        }
+        final String[] names = metadata.getPropertyNames();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(order)) {
+                final Type type = metadata.getPropertyTypes()[i];
+                return !metadata.getPropertyNullability()[i] && !type.isAssociationType() && !type.isComponentType();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * (order > last) or (order = last and id > lastId), reversed for descending sorts
+     */
+    protected Criterion getKeysetCriterion(String order, String idProperty, boolean asc, DBListCursor cursor) {
+        final Object lastId = cursor.getLastId();
+        final Criterion afterId = asc ? Restrictions.gt(idProperty, lastId) : Restrictions.lt(idProperty, lastId);
+        if (order == null || order.equals(idProperty)) {
+            return afterId;
+        }
+        final Object last = cursor.getLastSortValue();
+        final Criterion afterValue = asc ? Restrictions.gt(order, last) : Restrictions.lt(order, last);
+        return Restrictions.or(afterValue, Restrictions.and(Restrictions.eq(order, last), afterId));
+    }
+
+    /**
+     * Hibernate metadata of the entity class
+     */
+    protected ClassMetadata getClassMetadata(PMContext ctx, Entity entity) throws PMException {
+        final ClassMetadata metadata = getDb(ctx).getSessionFactory().getClassMetadata(DBQueryTemplate.get(entity).getEntityClass());
+        if (metadata == null) {
+            throw new PMException("Unmapped entity class " + entity.getClazz());
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the property to sort by or null if the list is not sorted
+     */
+    protected String getOrderProperty(Entity entity, ListSort sort) throws PMException {
+        return (sort != null && sort.isSorted()) ? DBQueryTemplate.get(entity).getProperty(sort.getFieldId()) : null;
+    }
+
+    protected boolean isAscending(ListSort sort) {
+        return (sort == null) ? true : sort.getDirection().equals(ListSort.SortDirection.ASC);
     }
 
     @Override
     public void delete(PMContext ctx, Object object) throws PMException {
+        final long start = startTiming();
+        detach(ctx, object);
         getDb(ctx).delete(object);
+        recordTiming(ctx, DBMetrics.DELETE, null, null, start, 1);
+        invalidateCount();
+        if (getTextSearch() != null) {
+            getTextSearch().deleted(getEntity(), object);
+        }
     }
 
     @Override
     public void update(PMContext ctx, Object object) throws PMException {
+        final long start = startTiming();
+        detach(ctx, object);
         getDb(ctx).update(object);
+        recordTiming(ctx, DBMetrics.UPDATE, null, null, start, 1);
+        invalidateCount();
+        if (getTextSearch() != null) {
+            getTextSearch().updated(getEntity(), object);
+        }
     }
 
     @Override
     public void add(PMContext ctx, Object object) throws PMException {
         try {
+            final long start = startTiming();
             getDb(ctx).save(object);
+            recordTiming(ctx, DBMetrics.ADD, null, null, start, 1);
+            invalidateCount();
+            if (getTextSearch() != null) {
+                getTextSearch().added(getEntity(), object);
+            }
         } catch (org.hibernate.exception.ConstraintViolationException e) {
             throw new PMException("constraint.violation.exception");
         }
     }
 
+    /**
+     * Save many objects in JDBC batches. The objects are detached when this
+     * returns.
+     *
+     * @see #write(PMContext, Collection, Write)
+     */
+    public DBBatchResult addAll(PMContext ctx, Collection<?> objects) throws PMException {
+        return write(ctx, objects, SAVE);
+    }
+
+    /**
+     * Update many objects in JDBC batches. The objects are detached when this
+     * returns.
+     *
+     * @see #write(PMContext, Collection, Write)
+     */
+    public DBBatchResult updateAll(PMContext ctx, Collection<?> objects) throws PMException {
+        return write(ctx, objects, UPDATE);
+    }
+
+    /**
+     * Delete many objects in JDBC batches. The objects are detached when this
+     * returns.
+     *
+     * @see #write(PMContext, Collection, Write)
+     */
+    public DBBatchResult deleteAll(PMContext ctx, Collection<?> objects) throws PMException {
+        return write(ctx, objects, DELETE);
+    }
+
+    /**
+     * Batched write. Objects are written in chunks of {@link #getBatchSize()},
+     * flushing and clearing the session after each one so statements go in
+     * JDBC batches (set hibernate.jdbc.batch_size, order_inserts and
+     * order_updates) and the session does not grow.
+     *
+     * When a chunk fails it is rolled back to a savepoint and retried one
+     * object at a time, so only the failing objects are reported and the rest
+     * are written. Savepoints need a started transaction; without one every
+     * object of a failing chunk is reported as failed.
+     *
+     * Hibernate sets the new version (and, on saves, the generated
+     * identifier) on the objects when the statements are queued, so they are
+     * put back to their values before the write when a chunk or an object is
+     * rolled back.
+     *
+     * Note that the session is cleared after every chunk: the given objects
+     * and any object loaded before in the session are detached when this
+     * returns.
+     */
+    protected DBBatchResult write(PMContext ctx, Collection<?> objects, Write write) throws PMException {
+        final long start = startTiming();
+        final Session db = getDb(ctx);
+        final DBBatchResult result = new DBBatchResult();
+        final List<Object> chunk = new ArrayList<Object>(getBatchSize());
+        for (Object o : objects) {
+            detach(ctx, o);
+            chunk.add(o);
+            if (chunk.size() == getBatchSize()) {
+                writeChunk(db, chunk, write, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(db, chunk, write, result);
+        }
+        recordTiming(ctx, write.getOperation(), null, null, start, result.getSucceeded());
+        invalidateCount();
+        if (getTextSearch() != null) {
+            final Set<Object> failed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (DBBatchResult.Failure f : result.getFailures()) {
+                failed.add(f.getItem());
+            }
+            for (Object o : objects) {
+                if (!failed.contains(o)) {
+                    write.written(getTextSearch(), getEntity(), o);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void writeChunk(Session db, List<Object> chunk, Write write, DBBatchResult result) {
+        final List<Object[]> states = new ArrayList<Object[]>(chunk.size());
+        for (Object o : chunk) {
+            states.add(getWriteState(db, o));
+        }
+        final Savepoint savepoint = setSavepoint(db);
+        try {
+            for (Object o : chunk) {
+                write.write(db, o);
+            }
+            db.flush();
+            release(db, savepoint);
+            result.succeeded(chunk.size());
+            return;
+        } catch (HibernateException e) {
+            rollback(db, savepoint);
+            release(db, savepoint);
+            for (int i = 0; i < chunk.size(); i++) {
+                setWriteState(db, chunk.get(i), states.get(i));
+            }
+            if (savepoint == null) {
+                for (Object o : chunk) {
+                    result.failed(o, e);
+                }
+                return;
+            }
+        } finally {
+            db.clear();
+        }
+        //Isolate the failing objects
+        for (int i = 0; i < chunk.size(); i++) {
+            final Object o = chunk.get(i);
+            final Savepoint one = setSavepoint(db);
+            try {
+                write.write(db, o);
+                db.flush();
+                release(db, one);
+                result.succeeded(1);
+            } catch (HibernateException e) {
+                rollback(db, one);
+                release(db, one);
+                setWriteState(db, o, states.get(i));
+                result.failed(o, e);
+            } finally {
+                db.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the identifier and version of a mapped object, or null
+     */
+    private Object[] getWriteState(Session db, Object o) {
+        final ClassMetadata metadata = db.getSessionFactory().getClassMetadata(o.getClass());
+        if (metadata == null) {
+            return null;
+        }
+        return new Object[]{
+                    metadata.hasIdentifierProperty() ? metadata.getIdentifier(o, EntityMode.POJO) : null,
+                    metadata.isVersioned() ? metadata.getVersion(o, EntityMode.POJO) : null
+                };
+    }
+
+    /**
+     * Put back the identifier and version taken by {@link #getWriteState}
+     */
+    private void setWriteState(Session db, Object o, Object[] state) {
+        if (state == null) {
+            return;
+        }
+        final ClassMetadata metadata = db.getSessionFactory().getClassMetadata(o.getClass());
+        if (metadata.hasIdentifierProperty()) {
+            metadata.setIdentifier(o, (Serializable) state[0], EntityMode.POJO);
+        }
+        if (metadata.isVersioned()) {
+            metadata.setPropertyValue(o, metadata.getPropertyNames()[metadata.getVersionProperty()], state[1], EntityMode.POJO);
+        }
+    }
+
+    /**
+     * @return a new savepoint or null if the session is not in a transaction
+     */
+    private Savepoint setSavepoint(Session db) {
+        if (db.getTransaction() == null || !db.getTransaction().isActive()) {
+            return null;
+        }
+        final Savepoint[] savepoint = new Savepoint[1];
+        try {
+            db.doWork(new Work() {
+
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    savepoint[0] = connection.setSavepoint();
+                }
+            });
+        } catch (HibernateException e) {
+            return null;
+        }
+        return savepoint[0];
+    }
+
+    private void rollback(Session db, final Savepoint savepoint) {
+        if (savepoint != null) {
+            db.doWork(new Work() {
+
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    connection.rollback(savepoint);
+                }
+            });
+        }
+    }
+
+    /**
+     * Free a savepoint that is no longer needed. Drivers that can not release
+     * them keep it until the transaction ends.
+     */
+    private void release(Session db, final Savepoint savepoint) {
+        if (savepoint == null) {
+            return;
+        }
+        try {
+            db.doWork(new Work() {
+
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    connection.releaseSavepoint(savepoint);
+                }
+            });
+        } catch (HibernateException e) {
+            //Released on commit or rollback
+        }
+    }
+
+    /**
+     * A write operation of a batch
+     */
+    protected interface Write {
+
+        void write(Session db, Object o);
+
+        /**
+         * @return the operation name in {@link DBMetrics}
+         */
+        String getOperation();
+
+        /**
+         * Notify the text search of a written object
+         */
+        void written(DBTextSearch search, Entity entity, Object o) throws PMException;
+    }
+    protected static final Write SAVE = new Write() {
+
+        @Override
+        public String getOperation() {
+            return DBMetrics.ADD;
+        }
+
+        @Override
+        public void write(Session db, Object o) {
+            db.save(o);
+        }
+
+        @Override
+        public void written(DBTextSearch search, Entity entity, Object o) throws PMException {
+            search.added(entity, o);
+        }
+    };
+    protected static final Write UPDATE = new Write() {
+
+        @Override
+        public String getOperation() {
+            return DBMetrics.UPDATE;
+        }
+
+        @Override
+        public void write(Session db, Object o) {
+            db.update(o);
+        }
+
+        @Override
+        public void written(DBTextSearch search, Entity entity, Object o) throws PMException {
+            search.updated(entity, o);
+        }
+    };
+    protected static final Write DELETE = new Write() {
+
+        @Override
+        public String getOperation() {
+            return DBMetrics.DELETE;
+        }
+
+        @Override
+        public void write(Session db, Object o) {
+            db.delete(o);
+        }
+
+        @Override
+        public void written(DBTextSearch search, Entity entity, Object o) throws PMException {
+            search.deleted(entity, o);
+        }
+    };
+
+    /**
+     * Bulk insert through a {@link StatelessSession}: no first level cache,
+     * no dirty checking and no cascades, so memory stays flat however many
+     * objects are loaded. Meant for one-shot data movement such as nightly
+     * imports; everything is inserted in a single transaction.
+     *
+     * @return the number of objects inserted
+     */
+    public long bulkInsert(PMContext ctx, Collection<?> objects) throws PMException {
+        return bulk(ctx, objects, true);
+    }
+
+    /**
+     * Bulk update through a {@link StatelessSession}. Every object is updated
+     * as given, without dirty checking nor cascades.
+     *
+     * @return the number of objects updated
+     */
+    public long bulkUpdate(PMContext ctx, Collection<?> objects) throws PMException {
+        return bulk(ctx, objects, false);
+    }
+
+    private long bulk(PMContext ctx, Collection<?> objects, boolean insert) throws PMException {
+        final long start = startTiming();
+        final StatelessSession db = openStatelessSession(ctx);
+        Transaction tx = null;
+        long count = 0;
+        try {
+            tx = db.beginTransaction();
+            for (Object o : objects) {
+                if (insert) {
+                    db.insert(o);
+                } else {
+                    db.update(o);
+                }
+                count++;
+            }
+            tx.commit();
+        } catch (HibernateException e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (HibernateException re) {}
+            }
+            throw new PMException(e);
+        } finally {
+            db.close();
+        }
+        recordTiming(ctx, insert ? DBMetrics.ADD : DBMetrics.UPDATE, null, null, start, count);
+        invalidateCount();
+        if (getTextSearch() != null) {
+            for (Object o : objects) {
+                if (insert) {
+                    getTextSearch().added(getEntity(), o);
+                } else {
+                    getTextSearch().updated(getEntity(), o);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Streams every item matching the filter to the handler through a
+     * {@link StatelessSession}. Items are never attached to a session, so
+     * lazy associations can not be initialized by the handler.
+     *
+     * @return the number of items handled
+     */
+    public long bulkScroll(PMContext ctx, EntityFilter filter, ListSort sort, DBItemHandler handler) throws PMException {
+        final StatelessSession db = openStatelessSession(ctx);
+        try {
+            final Criteria c = createCriteria(ctx, getEntity(), filter, sort,
+                    db.createCriteria(DBQueryTemplate.get(getEntity()).getEntityClass()));
+            c.setFetchSize(getFetchSize());
+            final long start = startTiming();
+            long count = 0;
+            final ScrollableResults results = c.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    handler.handle(ctx, results.get(0));
+                    count++;
+                }
+            } finally {
+                results.close();
+            }
+            recordTiming(ctx, DBMetrics.SCROLL, filter, sort, start, count);
+            return count;
+        } finally {
+            db.close();
+        }
+    }
+
+    private StatelessSession openStatelessSession(PMContext ctx) throws PMException {
+        if (ctx.getPersistenceManager() instanceof DBPersistenceManager) {
+            return ((DBPersistenceManager) ctx.getPersistenceManager()).openStatelessSession();
+        }
+        return getDb(ctx).getSessionFactory().openStatelessSession();
+    }
+
     @Override
     public Long count(PMContext ctx) throws PMException {
-        final EntityFilter filter = ctx.getEntityContainer().getFilter();
-        final Criteria count = createCriteria(ctx, getEntity(), filter, null);
-        count.setProjection(Projections.rowCount());
-        count.setMaxResults(1);
-        return (Long) count.uniqueResult();
+        return count(ctx, ctx.getEntityContainer().getFilter(), null);
     }
 
-    protected Criteria createCriteria(PMContext ctx, Entity entity, EntityFilter filter, ListSort sort) throws PMException {
-        final List<String> aliases = new ArrayList<String>();
-        Criteria c;
+    /**
+     * Count the items matching the filter.
+     *
+     * @param criteria an already built list criteria for the same filter to be
+     * reused as count query or null to build a new one
+     */
+    protected Long count(PMContext ctx, EntityFilter filter, Criteria criteria) throws PMException {
+        final String key = (getCountCacheTTL() > 0 && !isInTransaction(ctx)) ? getCountKey(ctx, filter) : null;
+        if (key != null) {
+            final Long cached = DBCountCache.getInstance().get(getEntity().getId(), key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Long result = null;
+        if (isApproximateCount() && isUnfiltered(ctx, filter)) {
+            result = approximateCount(ctx);
+        }
+        if (result == null) {
+            final Criteria count = (criteria instanceof CriteriaImpl) ? toCountCriteria((CriteriaImpl) criteria) : createCriteria(ctx, getEntity(), filter, null);
+            count.setProjection(Projections.rowCount());
+            count.setMaxResults(1);
+            final long start = startTiming();
+            result = (Long) count.uniqueResult();
+            recordTiming(ctx, DBMetrics.COUNT, filter, null, start, 1);
+        }
+        if (key != null && result != null) {
+            DBCountCache.getInstance().put(getEntity().getId(), key, result, getCountCacheTTL());
+        }
+        return result;
+    }
+
+    /**
+     * Counts inside a transaction may see its uncommitted writes, so they
+     * neither use nor fill the count cache.
+     */
+    protected boolean isInTransaction(PMContext ctx) {
+        return ctx.getPersistenceManager() instanceof DBPersistenceManager
+                && ((DBPersistenceManager) ctx.getPersistenceManager()).isTransactionStarted();
+    }
+
+    /**
+     * Turns a list criteria into a count one: orderings are dropped (some
+     * databases reject them next to an aggregate) and so is the page range.
+     */
+    protected Criteria toCountCriteria(CriteriaImpl criteria) {
+        for (Iterator<?> it = criteria.iterateOrderings(); it.hasNext();) {
+            it.next();
+            it.remove();
+        }
+        criteria.setFirstResult(0);
+        return criteria;
+    }
+
+    /**
+     * Key of the count in the count cache. It covers everything that
+     * restricts the count: the filter, the entity list filter and the owner
+     * of weak entities. Entities with a list filter are only cached if it
+     * is a {@link DBCacheableListFilter}.
+     *
+     * @return the key or null if the count can not be cached
+     */
+    protected String getCountKey(PMContext ctx, EntityFilter filter) {
+        final StringBuilder sb = new StringBuilder();
+        if (filter != null) {
+            final String filterKey = ((DBEntityFilter) filter).getFilterKey(getDb(ctx).getSessionFactory());
+            if (filterKey == null) {
+                return null;
+            }
+            sb.append(filterKey);
+        }
+        final Entity e = getEntity();
+        if (e.getListfilter() != null) {
+            if (!(e.getListfilter() instanceof DBCacheableListFilter)) {
+                return null;
+            }
+            final String listFilterKey = ((DBCacheableListFilter) e.getListfilter()).getCacheKey(ctx);
+            if (listFilterKey == null) {
+                return null;
+            }
+            sb.append("|lf ").append(listFilterKey);
+        }
+        if (e.isWeak()) {
+            final Object owner = getOwnerInstance(ctx, e);
+            if (owner != null) {
+                final Serializable id = getIdentifier(ctx, owner);
+                if (id == null) {
+                    return null;
+                }
+                sb.append("|owner ").append(id);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Identifier of a mapped object, attached to any session or detached
+     *
+     * @return the identifier or null if the object is not a mapped entity
+     */
+    protected Serializable getIdentifier(PMContext ctx, Object o) {
+        if (o instanceof HibernateProxy) {
+            return ((HibernateProxy) o).getHibernateLazyInitializer().getIdentifier();
+        }
+        final ClassMetadata metadata = getDb(ctx).getSessionFactory().getClassMetadata(o.getClass());
+        try {
+            return (metadata == null) ? null : metadata.getIdentifier(o, EntityMode.POJO);
+        } catch (HibernateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the count is not restricted at all
+     */
+    protected boolean isUnfiltered(PMContext ctx, EntityFilter filter) {
+        final Entity e = getEntity();
+        return (filter == null || ((DBEntityFilter) filter).isEmpty()) && e.getListfilter() == null && !e.isWeak();
+    }
+
+    /**
+     * Row count estimated by the database statistics of the entity table. Only
+     * MySQL and PostgreSQL are supported.
+     *
+     * @return the estimation or null if it is not available
+     */
+    protected Long approximateCount(PMContext ctx) throws PMException {
+        final Session db = getReadDb(ctx);
+        final ClassMetadata metadata = getClassMetadata(ctx, getEntity());
+        if (!(metadata instanceof AbstractEntityPersister) || !(db.getSessionFactory() instanceof SessionFactoryImplementor)) {
+            return null;
+        }
+        String table = ((AbstractEntityPersister) metadata).getTableName();
+        table = table.substring(table.lastIndexOf('.') + 1);
+        final Dialect dialect = ((SessionFactoryImplementor) db.getSessionFactory()).getDialect();
+        final String sql;
+        if (dialect instanceof MySQLDialect) {
+            sql = "select table_rows from information_schema.tables where table_schema = database() and table_name = ?";
+        } else if (dialect instanceof PostgreSQLDialect) {
+            sql = "select reltuples from pg_class where relname = ?";
+        } else {
+            return null;
+        }
         try {
-            c = getDb(ctx).createCriteria(Class.forName(entity.getClazz()));
-        } catch (ClassNotFoundException e) {
-            throw new EntityClassNotFoundException();
+            final SQLQuery q = db.createSQLQuery(sql);
+            q.setParameter(0, table);
+            q.setMaxResults(1);
+            final Object r = q.uniqueResult();
+            if (r instanceof Number && ((Number) r).longValue() >= 0) {
+                return ((Number) r).longValue();
+            }
+        } catch (HibernateException e) {
+            ctx.getPresentationManager().error(e);
+        }
+        return null;
+    }
+
+    /**
+     * Drop the cached counts of the entity
+     */
+    protected void invalidateCount() {
+        if (getEntity() != null) {
+            DBCountCache.getInstance().invalidate(getEntity().getId());
         }
+    }
+
+    protected Criteria createCriteria(PMContext ctx, Entity entity, EntityFilter filter, ListSort sort) throws PMException {
+        return createCriteria(ctx, entity, filter, sort,
+                getReadDb(ctx).createCriteria(DBQueryTemplate.get(entity).getEntityClass()));
+    }
+
+    /**
+     * Apply the sort, list filter, filter and owner restriction of an entity
+     * to a root criteria of the entity class
+     */
+    protected Criteria createCriteria(PMContext ctx, Entity entity, EntityFilter filter, ListSort sort, Criteria root) throws PMException {
+        final List<String> aliases = new ArrayList<String>();
+        final DBQueryTemplate template = DBQueryTemplate.get(entity);
+        Criteria c = root;
 
-        final String order = (sort != null && sort.isSorted()) ? entity.getFieldById(sort.getFieldId()).getProperty() : null;
-        final boolean asc = (sort == null) ? true : sort.getDirection().equals(ListSort.SortDirection.ASC);
+        final String order = getOrderProperty(entity, sort);
+        final boolean asc = isAscending(sort);
         if (order != null) {
-            final String[] splitorder = order.split("[.]");
-            for (int i = 0; i < splitorder.length - 1; i++) {
-                final String so = splitorder[i];
+            for (String so : template.getAliases(order)) {
                 if (!aliases.contains(so)) {
                     c = c.createAlias(so, so);
                     aliases.add(so);
@@ -177,31 +1065,47 @@ public class DataAccessDB implements DataAccess, PMCoreConstants {
         }
         //Weak entities must filter the parent
         if (entity.isWeak()) {
-            if (ctx.getEntityContainer(true) != null && ctx.getEntityContainer().getOwner() != null) {
-                if (ctx.getEntityContainer().getOwner().getId().equals(entity.getOwner().getEntityId())) {
-                    if (ctx.getEntityContainer().getOwner().getSelected() != null) {
-                        final Object instance = ctx.getEntityContainer().getOwner().getSelected().getInstance();
-                        final String localProperty = entity.getOwner().getLocalProperty();
-                        c.add(Restrictions.eq(localProperty, instance));
-                    }
-                }
+            final Object instance = getOwnerInstance(ctx, entity);
+            if (instance != null) {
+                final String localProperty = entity.getOwner().getLocalProperty();
+                c.add(Restrictions.eq(localProperty, instance));
             }
         }
 
         return c;
     }
 
+    /**
+     * @return the selected instance of the owner of a weak entity, if any
+     */
+    protected Object getOwnerInstance(PMContext ctx, Entity entity) {
+        if (ctx.getEntityContainer(true) != null && ctx.getEntityContainer().getOwner() != null) {
+            if (ctx.getEntityContainer().getOwner().getId().equals(entity.getOwner().getEntityId())) {
+                if (ctx.getEntityContainer().getOwner().getSelected() != null) {
+                    return ctx.getEntityContainer().getOwner().getSelected().getInstance();
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public Object refresh(PMContext ctx, Object o) throws PMException {
+        final long start = startTiming();
+        detach(ctx, o);
         final Session db = getDb(ctx);
         final Object merged = db.merge(o);
         db.refresh(merged);
+        recordTiming(ctx, DBMetrics.REFRESH, null, null, start, 1);
         return merged;
     }
 
     @Override
     public EntityFilter createFilter(PMContext ctx) throws PMException {
-        return new DBEntityFilter();
+        final DBEntityFilter filter = new DBEntityFilter();
+        filter.setTextSearch(getTextSearch());
+        filter.setTextMatches(new HashMap<String, DBTextMatch>(textMatches));
+        return filter;
     }
 
     @Override
@@ -213,4 +1117,92 @@ public class DataAccessDB implements DataAccess, PMCoreConstants {
     public Entity getEntity() {
         return entity;
     }
+
+    /**
+     * JDBC fetch size used by {@link #scroll}. MySQL Connector/J only streams
+     * with Integer.MIN_VALUE.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Time in milliseconds a count is kept in the {@link DBCountCache}. Counts
+     * are dropped by any write through a DataAccessDB on the entity but not by
+     * writes made elsewhere, so this is the maximum staleness accepted.
+     * Zero (the default) disables the cache. Entities with a list filter
+     * are only cached if it implements {@link DBCacheableListFilter}.
+     */
+    public void setCountCacheTTL(long countCacheTTL) {
+        this.countCacheTTL = countCacheTTL;
+    }
+
+    public long getCountCacheTTL() {
+        return countCacheTTL;
+    }
+
+    /**
+     * When true, unfiltered counts are read from the database table statistics
+     * instead of counting rows. Those are estimations.
+     */
+    public void setApproximateCount(boolean approximateCount) {
+        this.approximateCount = approximateCount;
+    }
+
+    public boolean isApproximateCount() {
+        return approximateCount;
+    }
+
+    /**
+     * When false, reads of this entity always use the primary session so they
+     * see their own writes regardless of the replica lag. Default true.
+     */
+    public void setReplicaReads(boolean replicaReads) {
+        this.replicaReads = replicaReads;
+    }
+
+    public boolean isReplicaReads() {
+        return replicaReads;
+    }
+
+    /**
+     * Number of objects written between session flushes in batched writes
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Backend for the LIKE filters of the entity. It is notified of the
+     * items written through add, update and delete and the batched and bulk
+     * writes.
+     */
+    public void setTextSearch(DBTextSearch textSearch) {
+        this.textSearch = textSearch;
+    }
+
+    public DBTextSearch getTextSearch() {
+        return textSearch;
+    }
+
+    /**
+     * How the LIKE filter of a field matches in the filters of the entity,
+     * {@link DBTextMatch#CONTAINS} by default
+     */
+    public void setTextMatch(String fieldId, DBTextMatch match) {
+        textMatches.put(fieldId, match);
+    }
+
+    public DBTextMatch getTextMatch(String fieldId) {
+        final DBTextMatch result = textMatches.get(fieldId);
+        return (result == null) ? DBTextMatch.CONTAINS : result;
+    }
 }
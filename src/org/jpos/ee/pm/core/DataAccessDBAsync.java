@@ -0,0 +1,270 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.jpos.ee.DB;
+
+/**
+ * Asynchronous facade over the read operations of a {@link DataAccessDB}.
+ * Every operation runs on the executor with its own session, taken from the
+ * context persistence manager (or the read replica) and closed when done, so
+ * for example a page and its count can run concurrently.
+ *
+ * Items are therefore returned detached. Before the session is closed the
+ * properties of the entity fields are initialized, following association
+ * paths such as "merchant.name", so items can be displayed; any other lazy
+ * association can not be loaded afterwards.
+ *
+ * When a transaction was started in the context the operation runs right
+ * away on the calling thread and the context session, so it sees the writes
+ * of the transaction.
+ *
+ * The default executor uses virtual threads when the JVM has them and a
+ * cached pool of daemon threads otherwise. Concurrency is then bounded by the
+ * sessions available, see {@link PooledDBPersistenceManager}.
+ *
+ * The context is only read by the tasks and must not change until they end.
+ */
+public class DataAccessDBAsync {
+
+    private static volatile Executor defaultExecutor;
+    private final DataAccessDB dataAccess;
+    private final Executor executor;
+
+    public DataAccessDBAsync(DataAccessDB dataAccess) {
+        this(dataAccess, getDefaultExecutor());
+    }
+
+    public DataAccessDBAsync(DataAccessDB dataAccess, Executor executor) {
+        this.dataAccess = dataAccess;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<List<?>> list(final PMContext ctx, final EntityFilter filter, final ListSort sort, final Integer from, final Integer count) {
+        return submit(ctx, new Task<List<?>>() {
+
+            @Override
+            public List<?> run(Session session) throws PMException {
+                final List<?> items = dataAccess.list(ctx, filter, sort, from, count);
+                initialize(session, items);
+                return items;
+            }
+        });
+    }
+
+    public CompletableFuture<Long> count(final PMContext ctx) {
+        return submit(ctx, new Task<Long>() {
+
+            @Override
+            public Long run(Session session) throws PMException {
+                return dataAccess.count(ctx);
+            }
+        });
+    }
+
+    public CompletableFuture<DBPage> listWithTotal(final PMContext ctx, final EntityFilter filter, final ListSort sort, final Integer from, final Integer count) {
+        return submit(ctx, new Task<DBPage>() {
+
+            @Override
+            public DBPage run(Session session) throws PMException {
+                final DBPage page = dataAccess.listWithTotal(ctx, filter, sort, from, count);
+                initialize(session, page.getItems());
+                return page;
+            }
+        });
+    }
+
+    public CompletableFuture<Object> getItem(final PMContext ctx, final String property, final String value) {
+        return submit(ctx, new Task<Object>() {
+
+            @Override
+            public Object run(Session session) throws PMException {
+                final Object item = dataAccess.getItem(ctx, property, value);
+                if (item != null) {
+                    initialize(session, Collections.singletonList(item));
+                }
+                return item;
+            }
+        });
+    }
+
+    /**
+     * Run the task on the executor with a session of its own bound to the
+     * data access, or on the context session if it is in a transaction
+     */
+    protected <T> CompletableFuture<T> submit(final PMContext ctx, final Task<T> task) {
+        final DBPersistenceManager pm = (DBPersistenceManager) ctx.getPersistenceManager();
+        if (pm.isTransactionStarted()) {
+            final CompletableFuture<T> result = new CompletableFuture<T>();
+            try {
+                result.complete(task.run(pm.getConnection()));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+
+            @Override
+            public T get() {
+                final boolean replica = dataAccess.isReplicaReads() && DBReplica.isEnabled();
+                DB db = null;
+                Session session = null;
+                try {
+                    if (replica) {
+                        session = DBReplica.openSession();
+                    } else {
+                        db = pm.openDetached(ctx);
+                        session = db.session();
+                    }
+                    DataAccessDB.bindSession(session);
+                    return task.run(session);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    DataAccessDB.unbindSession();
+                    if (db != null) {
+                        pm.closeDetached(ctx, db);
+                    } else if (session != null) {
+                        session.close();
+                    }
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Initialize the properties of the entity fields of the items, following
+     * association paths, while they are still attached to the session
+     */
+    protected void initialize(Session session, List<?> items) throws PMException {
+        final DBQueryTemplate template = DBQueryTemplate.get(dataAccess.getEntity());
+        final List<String[]> paths = new ArrayList<String[]>();
+        for (Field field : dataAccess.getEntity().getFields()) {
+            final String property = template.getProperty(field.getId());
+            if (property != null) {
+                paths.add(property.split("[.]"));
+            }
+        }
+        try {
+            for (Object item : items) {
+                for (String[] path : paths) {
+                    initialize(session, item, path);
+                }
+            }
+        } catch (HibernateException e) {
+            throw new PMException(e);
+        }
+    }
+
+    private void initialize(Session session, Object item, String[] path) {
+        Object current = item;
+        for (String name : path) {
+            Hibernate.initialize(current);
+            final ClassMetadata metadata = session.getSessionFactory().getClassMetadata(session.getEntityName(current));
+            if (metadata == null || !hasProperty(metadata, name)) {
+                return;
+            }
+            current = metadata.getPropertyValue(current, name, EntityMode.POJO);
+            if (current == null || current instanceof Collection) {
+                break;
+            }
+            if (!(current instanceof HibernateProxy) && session.getSessionFactory().getClassMetadata(current.getClass()) == null) {
+                //A plain value or a component, nothing more to load
+                return;
+            }
+        }
+        if (current != null) {
+            Hibernate.initialize(current);
+        }
+    }
+
+    private static boolean hasProperty(ClassMetadata metadata, String name) {
+        for (String p : metadata.getPropertyNames()) {
+            if (p.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public static Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (DataAccessDBAsync.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = createDefaultExecutor();
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Virtual threads are looked up by reflection so this compiles and runs
+     * on JVMs without them.
+     */
+    private static Executor createDefaultExecutor() {
+        try {
+            final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) m.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "DataAccessDBAsync");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * An operation of the data access
+     */
+    protected interface Task<T> {
+
+        T run(Session session) throws PMException;
+    }
+}
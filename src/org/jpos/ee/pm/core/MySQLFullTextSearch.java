@@ -0,0 +1,154 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.engine.TypedValue;
+
+/**
+ * Text search on MySQL FULLTEXT indexes. A LIKE filter becomes
+ * MATCH(column) AGAINST(text IN BOOLEAN MODE) where every word of the text is
+ * required and matched as a prefix. The filtered column needs a FULLTEXT
+ * index, for example:
+ *
+ * ALTER TABLE merchant ADD FULLTEXT INDEX merchant_name_ft (name);
+ *
+ * Only the properties listed in {@link #setProperties(String)} are searched
+ * this way; the rest keep the default LIKE. The index is maintained by
+ * MySQL so write notifications are ignored.
+ */
+public class MySQLFullTextSearch implements DBTextSearch {
+
+    private static final String OPERATORS = "+-<>()~*\"@";
+    private String[] properties = new String[0];
+
+    @Override
+    public Criterion getCriterion(Entity entity, String property, String text) throws PMException {
+        if (!isIndexed(property)) {
+            return null;
+        }
+        final String terms = toBooleanTerms(text);
+        return (terms == null) ? null : new MatchExpression(property, terms);
+    }
+
+    protected boolean isIndexed(String property) {
+        for (String p : properties) {
+            if (p.equals(property)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text as required prefix terms in boolean mode, or null if
+     * it has no searchable word
+     */
+    protected String toBooleanTerms(String text) {
+        final StringBuilder sb = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            final StringBuilder w = new StringBuilder();
+            for (char c : word.toCharArray()) {
+                if (OPERATORS.indexOf(c) < 0) {
+                    w.append(c);
+                }
+            }
+            if (w.length() > 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append('+').append(w).append('*');
+            }
+        }
+        return (sb.length() == 0) ? null : sb.toString();
+    }
+
+    @Override
+    public void added(Entity entity, Object item) {
+    }
+
+    @Override
+    public void updated(Entity entity, Object item) {
+    }
+
+    @Override
+    public void deleted(Entity entity, Object item) {
+    }
+
+    /**
+     * Comma separated list of the properties with a FULLTEXT index
+     */
+    public void setProperties(String properties) {
+        this.properties = properties.trim().split("\\s*,\\s*");
+    }
+
+    public String getProperties() {
+        final StringBuilder sb = new StringBuilder();
+        for (String p : properties) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * MATCH ... AGAINST restriction, resolving the columns of the property
+     * like any other criterion so aliased paths work too
+     */
+    protected static class MatchExpression implements Criterion {
+
+        private static final long serialVersionUID = -3905424478620147395L;
+        private final String property;
+        private final String terms;
+
+        public MatchExpression(String property, String terms) {
+            this.property = property;
+            this.terms = terms;
+        }
+
+        @Override
+        public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+            final String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, property);
+            final StringBuilder sb = new StringBuilder("match(");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(columns[i]);
+            }
+            return sb.append(") against (? in boolean mode)").toString();
+        }
+
+        @Override
+        public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+            return new TypedValue[]{new TypedValue(Hibernate.STRING, terms, EntityMode.POJO)};
+        }
+
+        @Override
+        public String toString() {
+            return "match(" + property + ") against (" + terms + ")";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core;
+
+import org.jpos.ee.DB;
+
+/**
+ * Persistence manager that takes its sessions from a shared
+ * {@link DBSessionPool} instead of opening a new one for every context.
+ * Sessions are cleared when given back and discarded after a rollback.
+ */
+public class PooledDBPersistenceManager extends DBPersistenceManager {
+
+    public static final int DEFAULT_MAX_SIZE = 50;
+    public static final int DEFAULT_MAX_IDLE = 10;
+    public static final long DEFAULT_TIMEOUT = 10000L;
+    private static volatile DBSessionPool pool = new DBSessionPool(DEFAULT_MAX_SIZE, DEFAULT_MAX_IDLE, DEFAULT_TIMEOUT);
+
+    @Override
+    protected DB openDB(PMContext ctx) throws Exception {
+        return getPool().acquire(ctx.getLog());
+    }
+
+    @Override
+    protected void closeDB(PMContext ctx, DB db) {
+        getPool().release(db);
+    }
+
+    @Override
+    protected void discardDB(PMContext ctx, DB db) {
+        getPool().discard(db);
+    }
+
+    public static DBSessionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Replace the shared pool, usually at startup to change its size. Idle
+     * sessions of the previous pool are closed.
+     */
+    public static void setPool(DBSessionPool pool) {
+        final DBSessionPool old = PooledDBPersistenceManager.pool;
+        PooledDBPersistenceManager.pool = pool;
+        old.clear();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core.monitor;
+
+import java.util.List;
+
+/**
+ * Lines of a {@link MonitorLineBuffer} added after a given sequence.
+ */
+public class MonitorDelta {
+
+    private final long sequence;
+    private final List<MonitorLine> lines;
+    private final boolean complete;
+
+    public MonitorDelta(long sequence, List<MonitorLine> lines, boolean complete) {
+        this.sequence = sequence;
+        this.lines = lines;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the sequence to ask from on the next call
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the new lines, oldest first
+     */
+    public List<MonitorLine> getLines() {
+        return lines;
+    }
+
+    /**
+     * @return false if some lines were lost because the client fell behind
+     * more than the buffer capacity
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
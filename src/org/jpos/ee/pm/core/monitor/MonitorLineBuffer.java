@@ -0,0 +1,108 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded ring buffer of the most recent lines of a monitor. Every line gets
+ * a sequence number when appended so clients can ask only for the lines after
+ * the last sequence they saw.
+ */
+public class MonitorLineBuffer {
+
+    private final MonitorLine[] lines;
+    private long next;
+    private boolean warm;
+
+    /**
+     * @param capacity maximum number of lines kept
+     */
+    public MonitorLineBuffer(int capacity) {
+        this.lines = new MonitorLine[capacity];
+    }
+
+    public synchronized void append(List<MonitorLine> added) {
+        for (MonitorLine line : added) {
+            lines[(int) (next % lines.length)] = line;
+            next++;
+        }
+        warm = true;
+    }
+
+    /**
+     * @return the lines appended after the given sequence. If some of them
+     * were already overwritten the delta starts at the oldest line kept and is
+     * flagged as incomplete.
+     */
+    public synchronized MonitorDelta getSince(long sequence) {
+        final long oldest = getOldest();
+        final long from = Math.max(Math.max(sequence, 0), oldest);
+        return new MonitorDelta(next, copy(from), sequence >= oldest);
+    }
+
+    /**
+     * @return the lines after the one with the given id, every line kept if
+     * the id is null, or null if the buffer can not answer (it is still empty
+     * or the line is not kept anymore)
+     */
+    public synchronized List<MonitorLine> getAfterId(Object id) {
+        if (!warm) {
+            return null;
+        }
+        if (id == null) {
+            return copy(getOldest());
+        }
+        final String wanted = id.toString();
+        for (long s = next - 1; s >= getOldest(); s--) {
+            final Object lineId = lines[(int) (s % lines.length)].getId();
+            if (lineId != null && wanted.equals(lineId.toString())) {
+                return copy(s + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sequence the next appended line will get
+     */
+    public synchronized long getSequence() {
+        return next;
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    private long getOldest() {
+        return Math.max(0, next - lines.length);
+    }
+
+    private List<MonitorLine> copy(long from) {
+        if (from >= next) {
+            return Collections.emptyList();
+        }
+        final List<MonitorLine> result = new ArrayList<MonitorLine>((int) (next - from));
+        for (long s = from; s < next; s++) {
+            result.add(lines[(int) (s % lines.length)]);
+        }
+        return result;
+    }
+}
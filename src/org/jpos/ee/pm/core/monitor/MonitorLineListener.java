@@ -0,0 +1,32 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core.monitor;
+
+import java.util.List;
+
+/**
+ * Subscriber of a tail-following {@link SQLMonitorSource}.
+ */
+public interface MonitorLineListener {
+
+    /**
+     * Called from the poller thread with the lines found since the last poll.
+     * Must return quickly, every subscriber is called from the same thread.
+     */
+    void linesAdded(MonitorSource source, List<MonitorLine> lines);
+}
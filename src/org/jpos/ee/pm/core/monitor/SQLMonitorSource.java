@@ -20,37 +20,131 @@ package org.jpos.ee.pm.core.monitor;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.hibernate.SQLQuery;
+import org.hibernate.Session;
 import org.jpos.ee.DB;
+import org.jpos.ee.pm.core.DBPropertyMetadata;
+import org.jpos.ee.pm.core.DBReplica;
+import org.jpos.ee.pm.core.PMException;
 
 public class SQLMonitorSource extends MonitorSource {
 
+    /**
+     * Default milliseconds between polls when following the tail
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000L;
+    /**
+     * Default number of recent lines kept in memory
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+    /**
+     * Default milliseconds a tail poller keeps running without being asked
+     * for lines
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+    private static final String ACTUAL = "actual";
+    /**
+     * The placeholder, with the quotes around it if any
+     */
+    private static final Pattern PLACEHOLDER = Pattern.compile("(['\"]?)\\$actual\\1");
     private String query;
     private String lastLineQuery;
     private Integer idColumn;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private boolean tailMode;
+    private String firstSql;
+    private String nextSql;
+    private boolean nextBound;
+    private volatile Class<?> idType;
+    private SQLMonitorTail tail;
 
     @Override
     public void init() {
         setQuery(getConfig("query"));
         setLastLineQuery(getConfig("last-line-query"));
         setIdColumn(Integer.parseInt(getConfig("id-column", "0")));
+        setPollInterval(Long.parseLong(getConfig("poll-interval", Long.toString(DEFAULT_POLL_INTERVAL))));
+        setBufferSize(Integer.parseInt(getConfig("buffer-size", Integer.toString(DEFAULT_BUFFER_SIZE))));
+        setIdleTimeout(Long.parseLong(getConfig("idle-timeout", Long.toString(DEFAULT_IDLE_TIMEOUT))));
+        setTailMode(Boolean.parseBoolean(getConfig("tail", "false")));
     }
 
+    /**
+     * In tail mode lines are served from the memory buffer fed by the shared
+     * poller and the database is only queried when the buffer can not answer.
+     */
     @Override
     public List<MonitorLine> getLinesFrom(Object actual) throws Exception {
+        if (isTailMode()) {
+            final SQLMonitorTail t = getTail();
+            t.keepRunning();
+            final List<MonitorLine> lines = t.getBuffer().getAfterId(actual);
+            if (lines != null) {
+                return lines;
+            }
+        }
+        return queryLinesFrom(actual);
+    }
+
+    /**
+     * Lines added after the given buffer sequence. Starting from sequence 0 a
+     * late joiner gets every line still kept in memory.
+     */
+    public MonitorDelta getLinesSince(long sequence) {
+        final SQLMonitorTail t = getTail();
+        t.keepRunning();
+        return t.getBuffer().getSince(sequence);
+    }
+
+    /**
+     * Follow the tail of this monitor: the listener gets the new lines found
+     * by a single poller thread shared by every subscriber.
+     */
+    public void subscribe(MonitorLineListener listener) {
+        getTail().subscribe(listener);
+    }
+
+    public void unsubscribe(MonitorLineListener listener) {
+        getTail().unsubscribe(listener);
+    }
+
+    protected synchronized SQLMonitorTail getTail() {
+        if (tail == null) {
+            tail = new SQLMonitorTail(this, getPollInterval(), getBufferSize(), getIdleTimeout());
+        }
+        return tail;
+    }
+
+    /**
+     * Stop the tail poller, if any, when the source is shut down
+     */
+    public synchronized void stop() {
+        if (tail != null) {
+            tail.stop();
+        }
+    }
+
+    /**
+     * Runs the monitor query against the database. The last seen id is bound
+     * as a parameter of the last line query instead of being pasted into it.
+     */
+    protected List<MonitorLine> queryLinesFrom(Object actual) throws Exception {
         final List<MonitorLine> result = new ArrayList<MonitorLine>();
-        final DB db = new DB();
-        db.open();
+        final Session db = openSession();
         try {
-            String sql;
+            final SQLQuery c;
             if (actual == null) {
-                sql = getQuery().trim();
+                c = db.createSQLQuery(firstSql);
             } else {
-                sql = getLastLineQuery().trim();
+                c = db.createSQLQuery(nextSql);
+                if (nextBound) {
+                    c.setParameter(ACTUAL, toParameter(db, actual));
+                }
             }
-            sql = sql.replaceAll("\\$actual", (actual == null) ? "" : actual.toString());
-            final SQLQuery c = db.session().createSQLQuery(sql);
             final List<?> l = c.list();
             for (Iterator<?> iterator = l.iterator(); iterator.hasNext();) {
                 final Object item = iterator.next();
@@ -65,7 +159,7 @@ public class SQLMonitorSource extends MonitorSource {
                     final Object[] objects = {item};
                     line.setValue(objects);
                 }
-
+                learnIdType(line.getId());
                 result.add(line);
             }
         } finally {
@@ -74,13 +168,22 @@ public class SQLMonitorSource extends MonitorSource {
         return result;
     }
 
+    /**
+     * Monitors only read, so they poll the read replica when there is one
+     */
+    protected Session openSession() {
+        if (DBReplica.isEnabled()) {
+            return DBReplica.openSession();
+        }
+        return new DB().open();
+    }
+
     @Override
     public MonitorLine getLastLine() throws Exception {
         final MonitorLine result = new MonitorLine();
-        final DB db = new DB();
-        db.open();
+        final Session db = openSession();
         try {
-            final SQLQuery c = db.session().createSQLQuery(getLastLineQuery().trim());
+            final SQLQuery c = db.createSQLQuery(getLastLineQuery().trim());
             c.setMaxResults(1);
             final Object item = c.uniqueResult();
             if (item instanceof Object[]) {
@@ -92,17 +195,48 @@ public class SQLMonitorSource extends MonitorSource {
                 final Object[] objects = {item};
                 result.setValue(objects);
             }
+            learnIdType(result.getId());
         } finally {
             db.close();
         }
         return result;
     }
 
+    /**
+     * Ids usually come back from the client as strings. They are bound with
+     * the type the id column had in the query results, learning it from the
+     * first line of the monitor query if no line was read yet.
+     */
+    private Object toParameter(Session db, Object actual) throws PMException {
+        if (!(actual instanceof String)) {
+            return actual;
+        }
+        if (idType == null) {
+            final SQLQuery c = db.createSQLQuery(firstSql);
+            c.setMaxResults(1);
+            final Object item = c.uniqueResult();
+            learnIdType((item instanceof Object[]) ? ((Object[]) item)[getIdColumn()] : item);
+        }
+        final Class<?> type = idType;
+        if (type == null) {
+            return actual;
+        }
+        final Object result = DBPropertyMetadata.parse(type, (String) actual);
+        return (result == null) ? actual : result;
+    }
+
+    private void learnIdType(Object id) {
+        if (id != null) {
+            idType = id.getClass();
+        }
+    }
+
     /**
      * @param query the query to set
      */
     public void setQuery(String query) {
         this.query = query;
+        this.firstSql = (query == null) ? null : query.trim().replaceAll("\\$actual", "");
     }
 
     /**
@@ -117,6 +251,11 @@ public class SQLMonitorSource extends MonitorSource {
      */
     public void setLastLineQuery(String lastLineQuery) {
         this.lastLineQuery = lastLineQuery;
+        if (lastLineQuery != null) {
+            this.nextBound = lastLineQuery.contains("$actual");
+            //A quoted placeholder becomes a bare parameter, the binding types it
+            this.nextSql = PLACEHOLDER.matcher(lastLineQuery.trim()).replaceAll(":" + ACTUAL);
+        }
     }
 
     /**
@@ -139,4 +278,61 @@ public class SQLMonitorSource extends MonitorSource {
     public Integer getIdColumn() {
         return idColumn;
     }
+
+    /**
+     * @param pollInterval milliseconds between polls when following the tail
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @return the pollInterval
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @param bufferSize number of recent lines kept in memory
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the bufferSize
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param idleTimeout milliseconds a tail poller without subscribers keeps
+     * running after the last request for lines, 0 to keep it until stopped
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the idleTimeout
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param tailMode true to serve getLinesFrom from the memory buffer
+     */
+    public void setTailMode(boolean tailMode) {
+        this.tailMode = tailMode;
+    }
+
+    /**
+     * @return the tailMode
+     */
+    public boolean isTailMode() {
+        return tailMode;
+    }
 }
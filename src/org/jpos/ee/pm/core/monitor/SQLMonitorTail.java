@@ -0,0 +1,202 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.core.monitor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the tail of a {@link SQLMonitorSource} from a single thread. It
+ * keeps the id of the last line seen and polls for newer lines once per
+ * interval, handing them to every subscriber, so N viewers cost one query per
+ * interval instead of N. Recent lines are kept in a {@link MonitorLineBuffer}
+ * so clients that poll the source are served from memory.
+ *
+ * The poller starts with the first subscriber and stops with the last one,
+ * unless it was kept running for buffered clients. Those keep it running
+ * only while they poll: after the idle timeout without a call to
+ * {@link #keepRunning()} and without subscribers it stops. A restarted poller
+ * goes on from the last line seen, so the buffer has no gaps.
+ */
+public class SQLMonitorTail implements Runnable {
+
+    private final SQLMonitorSource source;
+    private final long interval;
+    private final long idleTimeout;
+    private final List<MonitorLineListener> listeners;
+    private final MonitorLineBuffer buffer;
+    private ScheduledExecutorService scheduler;
+    private boolean keepRunning;
+    private volatile long lastAccess;
+    private volatile Object last;
+    private volatile boolean positioned;
+    private volatile Exception lastError;
+
+    /**
+     * @param source the monitor source to follow
+     * @param interval milliseconds between polls
+     * @param bufferSize number of recent lines kept in memory
+     */
+    public SQLMonitorTail(SQLMonitorSource source, long interval, int bufferSize) {
+        this(source, interval, bufferSize, 0);
+    }
+
+    /**
+     * @param source the monitor source to follow
+     * @param interval milliseconds between polls
+     * @param bufferSize number of recent lines kept in memory
+     * @param idleTimeout milliseconds without {@link #keepRunning()} calls
+     * after which a poller without subscribers stops, 0 to never stop it
+     */
+    public SQLMonitorTail(SQLMonitorSource source, long interval, int bufferSize, long idleTimeout) {
+        this.source = source;
+        this.interval = interval;
+        this.idleTimeout = idleTimeout;
+        this.listeners = new CopyOnWriteArrayList<MonitorLineListener>();
+        this.buffer = new MonitorLineBuffer(bufferSize);
+    }
+
+    public synchronized void subscribe(MonitorLineListener listener) {
+        listeners.add(listener);
+        if (scheduler == null) {
+            start();
+        }
+    }
+
+    public synchronized void unsubscribe(MonitorLineListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && !keepRunning) {
+            stop();
+        }
+    }
+
+    /**
+     * Start polling, if not started yet, and keep polling without
+     * subscribers until stopped or idle for longer than the idle timeout.
+     */
+    public synchronized void keepRunning() {
+        keepRunning = true;
+        lastAccess = System.currentTimeMillis();
+        if (scheduler == null) {
+            start();
+        }
+    }
+
+    protected synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "SQLMonitorTail");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        keepRunning = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Stop a poller that is only kept running and was not asked for lines
+     * within the idle timeout
+     *
+     * @return true if it was stopped
+     */
+    protected synchronized boolean stopIfIdle() {
+        if (keepRunning && idleTimeout > 0 && listeners.isEmpty()
+                && System.currentTimeMillis() - lastAccess > idleTimeout) {
+            stop();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        if (stopIfIdle()) {
+            return;
+        }
+        try {
+            if (!positioned) {
+                //Only lines added from now on are followed
+                final List<MonitorLine> lines = source.queryLinesFrom(null);
+                last = lines.isEmpty() ? null : lines.get(lines.size() - 1).getId();
+                if (buffer.getSequence() == 0) {
+                    //History for late joiners
+                    buffer.append(lines);
+                }
+                positioned = true;
+                return;
+            }
+            final List<MonitorLine> lines = source.queryLinesFrom(last);
+            if (lines.isEmpty()) {
+                return;
+            }
+            last = lines.get(lines.size() - 1).getId();
+            buffer.append(lines);
+            publish(lines);
+            lastError = null;
+        } catch (Exception e) {
+            //Retried on next poll
+            lastError = e;
+        }
+    }
+
+    protected void publish(List<MonitorLine> lines) {
+        for (MonitorLineListener listener : listeners) {
+            try {
+                listener.linesAdded(source, lines);
+            } catch (RuntimeException e) {
+                lastError = e;
+            }
+        }
+    }
+
+    public MonitorLineBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the id of the last line seen
+     */
+    public Object getLast() {
+        return last;
+    }
+
+    /**
+     * @return the error of the last poll or null if it succeeded
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+}
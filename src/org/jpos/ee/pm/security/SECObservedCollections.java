@@ -0,0 +1,151 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.security;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Views of the security collections that report every change, so compiled
+ * permissions can not outlive the groups and permissions they came from.
+ * Every mutation, including the ones made through iterators and sub lists,
+ * runs the given listener after reaching the underlying collection.
+ */
+final class SECObservedCollections {
+
+    private SECObservedCollections() {
+    }
+
+    static <T> List<T> list(final List<T> target, final Runnable changed) {
+        return new AbstractList<T>() {
+
+            @Override
+            public T get(int index) {
+                return target.get(index);
+            }
+
+            @Override
+            public int size() {
+                return target.size();
+            }
+
+            @Override
+            public T set(int index, T element) {
+                try {
+                    return target.set(index, element);
+                } finally {
+                    changed.run();
+                }
+            }
+
+            @Override
+            public void add(int index, T element) {
+                try {
+                    target.add(index, element);
+                } finally {
+                    changed.run();
+                }
+            }
+
+            @Override
+            public T remove(int index) {
+                try {
+                    return target.remove(index);
+                } finally {
+                    changed.run();
+                }
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return target.contains(o);
+            }
+        };
+    }
+
+    static <T> Set<T> set(final Set<T> target, final Runnable changed) {
+        return new AbstractSet<T>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                final Iterator<T> it = target.iterator();
+                return new Iterator<T>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return it.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        try {
+                            it.remove();
+                        } finally {
+                            changed.run();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return target.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return target.contains(o);
+            }
+
+            @Override
+            public boolean add(T e) {
+                try {
+                    return target.add(e);
+                } finally {
+                    changed.run();
+                }
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                try {
+                    return target.remove(o);
+                } finally {
+                    changed.run();
+                }
+            }
+
+            @Override
+            public void clear() {
+                try {
+                    target.clear();
+                } finally {
+                    changed.run();
+                }
+            }
+        };
+    }
+}
@@ -19,9 +19,12 @@ package org.jpos.ee.pm.security;
 
 import java.io.Serializable;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
 @Table(name = "sec_perms")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class SECPermission implements Serializable {
 
     public static final String LOGIN = "login";
@@ -46,6 +49,7 @@ public class SECPermission implements Serializable {
 
     public void setName(String name) {
         this.name = name;
+        SECPermissionIndex.changed();
     }
 
     public String getName() {
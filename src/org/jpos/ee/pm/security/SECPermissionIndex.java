@@ -0,0 +1,80 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dictionary of permission names to bit indexes, used by {@link SECUser} to
+ * compile its effective permissions into a bit set.
+ *
+ * It also holds a version number that changes whenever a group permission
+ * changes, so compiled permissions know when they are stale.
+ */
+public final class SECPermissionIndex {
+
+    private static final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger next = new AtomicInteger();
+    private static final AtomicLong version = new AtomicLong();
+
+    private SECPermissionIndex() {
+    }
+
+    /**
+     * @return the index of the permission, assigning a new one if needed
+     */
+    public static int register(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            synchronized (indexes) {
+                index = indexes.get(name);
+                if (index == null) {
+                    index = next.getAndIncrement();
+                    indexes.put(name, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the permission or -1 if nobody was granted it
+     */
+    public static int indexOf(String name) {
+        final Integer index = indexes.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * @return the current permission version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Signal that some group permission changed so every compiled set
+     * is rebuilt on its next use.
+     */
+    public static void changed() {
+        version.incrementAndGet();
+    }
+}
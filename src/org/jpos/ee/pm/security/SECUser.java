@@ -19,15 +19,21 @@ package org.jpos.ee.pm.security;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import javax.persistence.*;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.Type;
 import org.jpos.ee.Cloneable;
 
 @Entity
 @Table(name = "sec_users")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class SECUser extends Cloneable implements Serializable {
 
     private static final long serialVersionUID = -2596321779435316577L;
@@ -43,6 +49,8 @@ public class SECUser extends Cloneable implements Serializable {
     @JoinTable(name = "sec_user_groups", joinColumns =
     @JoinColumn(name = "sec_user"), inverseJoinColumns =
     @JoinColumn(name = "sec_group"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @Fetch(FetchMode.SUBSELECT)
     private List<SECUserGroup> groups;
     @Type(type = "yes_no")
     private boolean deleted;
@@ -53,7 +61,10 @@ public class SECUser extends Cloneable implements Serializable {
     @Type(type = "yes_no")
     private boolean changePassword;
     @OneToMany(mappedBy = "user", cascade=CascadeType.ALL)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<SECUserProp> props;
+    private transient volatile CompiledPermissions compiledPermissions;
+    private transient volatile int groupsModCount;
 
     public SECUser() {
         super();
@@ -63,12 +74,32 @@ public class SECUser extends Cloneable implements Serializable {
         if (permName == null) {
             return true;
         }
-        for (SECUserGroup g : groups) {
-            if (g.hasPermission(permName)) {
-                return true;
-            }
+        final BitSet mask = getPermissionMask();
+        final int index = SECPermissionIndex.indexOf(permName);
+        return index >= 0 && mask.get(index);
+    }
+
+    /**
+     * Effective permissions of the user, compiled from its groups the first
+     * time they are needed and again only when they become stale.
+     */
+    private BitSet getPermissionMask() {
+        CompiledPermissions c = compiledPermissions;
+        if (c == null || !c.isValidFor(groups, groupsModCount)) {
+            c = new CompiledPermissions(groups, groupsModCount);
+            compiledPermissions = c;
         }
-        return false;
+        return c.mask;
+    }
+
+    /**
+     * Discard the compiled permissions. Changes made through
+     * {@link #getGroups()} and {@link SECUserGroup#getPermissions()} already
+     * do it.
+     */
+    public void invalidatePermissions() {
+        groupsModCount++;
+        compiledPermissions = null;
     }
 
     public void logRevision(String s, SECUser me) {
@@ -220,15 +251,26 @@ public class SECUser extends Cloneable implements Serializable {
         return sb.toString();
     }
 
+    /**
+     * @return a view of the groups that discards the compiled permissions
+     * whenever it is changed
+     */
     public List<SECUserGroup> getGroups() {
         if (groups == null) {
             groups = new ArrayList<SECUserGroup>();
         }
-        return groups;
+        return SECObservedCollections.list(groups, new Runnable() {
+
+            @Override
+            public void run() {
+                invalidatePermissions();
+            }
+        });
     }
 
     public void setGroups(List<SECUserGroup> groups) {
         this.groups = groups;
+        invalidatePermissions();
     }
 
     /**
@@ -252,4 +294,44 @@ public class SECUser extends Cloneable implements Serializable {
     public boolean isChangePassword() {
         return changePassword;
     }
+
+    private static final class CompiledPermissions {
+
+        private final BitSet mask;
+        private final long version;
+        private final List<SECUserGroup> groups;
+        private final int modCount;
+        private final int size;
+
+        /**
+         * @param modCount changes of the groups seen so far, taken before
+         * reading them so concurrent changes make this one stale
+         */
+        CompiledPermissions(List<SECUserGroup> groups, int modCount) {
+            this.version = SECPermissionIndex.getVersion();
+            this.modCount = modCount;
+            this.groups = groups;
+            this.mask = new BitSet();
+            if (groups != null) {
+                for (SECUserGroup g : groups) {
+                    for (SECPermission p : g.getPermissions()) {
+                        if (p != null && p.getName() != null) {
+                            mask.set(SECPermissionIndex.register(p.getName()));
+                        }
+                    }
+                }
+            }
+            this.size = (groups == null) ? 0 : groups.size();
+        }
+
+        /**
+         * Changes through the group and permission views bump the user and
+         * the global counters. Hibernate replaces the collection on load and
+         * refresh, so a different list or size means different groups.
+         */
+        boolean isValidFor(List<SECUserGroup> current, int currentModCount) {
+            return version == SECPermissionIndex.getVersion() && modCount == currentModCount
+                    && current == groups && (current == null || current.size() == size);
+        }
+    }
 }
@@ -22,10 +22,15 @@ import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.Type;
 
 @Entity
 @Table(name = "sec_groups")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class SECUserGroup implements Serializable {
 
     @Id
@@ -42,7 +47,16 @@ public class SECUserGroup implements Serializable {
     @JoinTable(name = "sec_group_perms", joinColumns =
     @JoinColumn(name = "sec_group"), inverseJoinColumns =
     @JoinColumn(name = "sec_perm"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @Fetch(FetchMode.SUBSELECT)
     private Set<SECPermission> permissions;
+    private static final Runnable CHANGED = new Runnable() {
+
+        @Override
+        public void run() {
+            SECPermissionIndex.changed();
+        }
+    };
 
     @Override
     public String toString() {
@@ -133,12 +147,17 @@ public class SECUserGroup implements Serializable {
         this.creation = creation;
     }
 
+    /**
+     * @return a view of the permissions that makes every compiled user
+     * permission stale whenever it is changed
+     */
     public Set<SECPermission> getPermissions() {
-        return permissions;
+        return permissions == null ? null : SECObservedCollections.set(permissions, CHANGED);
     }
 
     public void setPermissions(Set<SECPermission> permissions) {
         this.permissions = permissions;
+        SECPermissionIndex.changed();
     }
 
     public void setActive(boolean active) {
@@ -19,6 +19,8 @@ package org.jpos.ee.pm.security;
 
 import java.io.Serializable;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  *
@@ -26,6 +28,7 @@ import javax.persistence.*;
  */
 @Entity
 @Table(name = "sec_user_props")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class SECUserProp implements Serializable {
 
     @Id
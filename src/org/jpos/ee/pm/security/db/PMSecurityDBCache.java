@@ -0,0 +1,177 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2011 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jpos.ee.pm.security.db;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import org.jpos.ee.pm.core.DBCache;
+import org.jpos.ee.pm.security.core.PMSecurityPermission;
+import org.jpos.ee.pm.security.core.PMSecurityUser;
+import org.jpos.ee.pm.security.core.PMSecurityUserGroup;
+
+/**
+ * In-process authentication cache of {@link PMSecurityDBConnector}. It keeps
+ * converted users and a short lived memo of successful credential checks so
+ * repeated logins skip the password hash verification. Passwords are never
+ * stored, only a salted digest of them.
+ *
+ * Entries of a user must be invalidated whenever its password, active or
+ * deleted flags change; the connector does it on every update. Entries are
+ * keyed by the lowercased login, like the stored nicks, so every spelling of
+ * a login shares (and loses) the same entries.
+ *
+ * Users are copied in and out so callers can not alter the cached ones.
+ */
+public class PMSecurityDBCache {
+
+    public static final int DEFAULT_SIZE = 1024;
+    public static final long DEFAULT_USER_TTL = 30000L;
+    public static final long DEFAULT_CREDENTIAL_TTL = 60000L;
+    private static final PMSecurityDBCache instance = new PMSecurityDBCache();
+    private final byte[] salt;
+    private volatile DBCache<String, PMSecurityUser> users;
+    private volatile DBCache<String, byte[]> credentials;
+
+    public PMSecurityDBCache() {
+        super();
+        salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        configure(DEFAULT_SIZE, DEFAULT_USER_TTL, DEFAULT_CREDENTIAL_TTL);
+    }
+
+    public static PMSecurityDBCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replace both caches. A ttl of zero disables the corresponding cache.
+     *
+     * @param size maximum number of users in each cache
+     * @param userTtl milliseconds a converted user is kept
+     * @param credentialTtl milliseconds a successful credential check is kept
+     */
+    public final void configure(int size, long userTtl, long credentialTtl) {
+        users = new DBCache<String, PMSecurityUser>(size, userTtl);
+        credentials = new DBCache<String, byte[]>(size, credentialTtl);
+    }
+
+    /**
+     * @return a copy of the cached user or null
+     */
+    public PMSecurityUser getUser(String username) {
+        final PMSecurityUser user = users.get(key(username));
+        return (user == null) ? null : copy(user);
+    }
+
+    public void putUser(String username, PMSecurityUser user) {
+        final DBCache<String, PMSecurityUser> c = users;
+        if (c.getTtl() > 0) {
+            c.put(key(username), copy(user));
+        }
+    }
+
+    /**
+     * @return true if the same credentials were successfully checked recently
+     */
+    public boolean isVerified(String username, String password) {
+        final String key = key(username);
+        final byte[] digest = credentials.get(key);
+        return digest != null && MessageDigest.isEqual(digest, digest(key, password));
+    }
+
+    /**
+     * Remember a successful credential check
+     */
+    public void verified(String username, String password) {
+        final DBCache<String, byte[]> c = credentials;
+        if (c.getTtl() > 0) {
+            final String key = key(username);
+            c.put(key, digest(key, password));
+        }
+    }
+
+    /**
+     * Forget everything about a user
+     */
+    public void invalidate(String username) {
+        final String key = key(username);
+        users.remove(key);
+        credentials.remove(key);
+    }
+
+    public void clear() {
+        users.clear();
+        credentials.clear();
+    }
+
+    /**
+     * Forget converted users only, they embed their groups and permissions
+     */
+    public void clearUsers() {
+        users.clear();
+    }
+
+    /**
+     * @return the canonical form of a login, the one stored as nick
+     */
+    private static String key(String username) {
+        return username.toLowerCase();
+    }
+
+    private static PMSecurityUser copy(PMSecurityUser u) {
+        final PMSecurityUser user = new PMSecurityUser();
+        user.setActive(u.isActive());
+        user.setChangePassword(u.isChangePassword());
+        user.setDeleted(u.isDeleted());
+        user.setEmail(u.getEmail());
+        user.setName(u.getName());
+        user.setPassword(u.getPassword());
+        user.setUsername(u.getUsername());
+        for (PMSecurityUserGroup g : u.getGroups()) {
+            final PMSecurityUserGroup group = new PMSecurityUserGroup();
+            group.setActive(g.isActive());
+            group.setDescription(g.getDescription());
+            group.setName(g.getName());
+            for (PMSecurityPermission p : g.getPermissions()) {
+                final PMSecurityPermission perm = new PMSecurityPermission();
+                perm.setDescription(p.getDescription());
+                perm.setName(p.getName());
+                group.getPermissions().add(perm);
+            }
+            user.getGroups().add(group);
+        }
+        return user;
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(salt);
+            md.update(username.getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(password).getBytes("UTF-8"));
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
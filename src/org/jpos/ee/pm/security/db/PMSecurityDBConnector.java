@@ -18,13 +18,25 @@
 package org.jpos.ee.pm.security.db;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.hibernate.Cache;
 import org.hibernate.Session;
 
 import org.hibernate.criterion.Restrictions;
 import org.jpos.ee.pm.core.exception.ConnectionNotFoundException;
 import org.jpos.ee.pm.core.PMException;
 import org.jpos.ee.pm.security.SECPermission;
+import org.jpos.ee.pm.security.SECPermissionIndex;
 import org.jpos.ee.pm.security.SECUser;
 import org.jpos.ee.pm.security.SECUserGroup;
 import org.jpos.ee.pm.security.core.GroupAlreadyExistException;
@@ -43,6 +55,42 @@ import org.jpos.ee.pm.security.core.UserNotFoundException;
  */
 public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
 
+    /**
+     * Default number of users written between session flushes in bulk
+     * operations. Should match hibernate.jdbc.batch_size.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    /**
+     * Maximum number of values in a single IN restriction
+     */
+    protected static final int IN_CHUNK_SIZE = 500;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Query cache region of the user lookups by nick
+     */
+    public static final String USER_QUERY_REGION = "org.jpos.ee.pm.security.SECUser.query";
+    /**
+     * Query cache region of the group lookups by name
+     */
+    public static final String GROUP_QUERY_REGION = "org.jpos.ee.pm.security.SECUserGroup.query";
+    /**
+     * Query cache region of the permission lookups by name
+     */
+    public static final String PERMISSION_QUERY_REGION = "org.jpos.ee.pm.security.SECPermission.query";
+    /**
+     * Users with their groups in one query. Group permissions follow in a
+     * single subselect query (see the SUBSELECT fetch on the collection) so
+     * the whole graph takes two queries instead of one per user and group.
+     */
+    protected static final String USERS_GRAPH_QUERY = "select distinct u from SECUser u left join fetch u.groups";
+    /**
+     * Groups with their permissions in one query.
+     */
+    protected static final String GROUPS_GRAPH_QUERY = "select distinct g from SECUserGroup g left join fetch g.permissions";
+    private static final String USER_GROUPS_ROLE = SECUser.class.getName() + ".groups";
+    private static final String GROUP_PERMISSIONS_ROLE = SECUserGroup.class.getName() + ".permissions";
+
     /**
      * Get hibernate session from the context
      */
@@ -50,27 +98,55 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
         return (Session) getCtx().getPersistenceManager().getConnection();
     }
 
+    /**
+     * Credentials checked recently skip the verification, the user itself is
+     * read through {@link #getUser(String)} so it outlives the user cache.
+     */
+    @Override
+    public PMSecurityUser authenticate(String username, String password) throws PMSecurityException {
+        final PMSecurityDBCache cache = PMSecurityDBCache.getInstance();
+        if (username != null && cache.isVerified(username, password)) {
+            return getUser(username);
+        }
+        final PMSecurityUser user = super.authenticate(username, password);
+        if (username != null) {
+            cache.verified(username, password);
+        }
+        return user;
+    }
+
     @Override
     public PMSecurityUser getUser(String username) throws PMSecurityException {
+        final PMSecurityDBCache cache = PMSecurityDBCache.getInstance();
+        final PMSecurityUser cached = (username == null) ? null : cache.getUser(username);
+        if (cached != null) {
+            return cached;
+        }
         try {
             final SECUser dbuser = getDBUser(username);
             if (dbuser == null) {
                 throw new UserNotFoundException();
             }
-            return convert(dbuser);
+            final PMSecurityUser user = convert(dbuser);
+            if (username != null) {
+                cache.putUser(username, user);
+            }
+            return user;
         } catch (ConnectionNotFoundException ex) {
             throw new PMSecurityException(ex);
         }
     }
 
+    /**
+     * Nicks are stored in lower case, so the lookup ignores the case of the
+     * given username
+     */
     public SECUser getDBUser(String username) throws PMSecurityException, ConnectionNotFoundException {
         final Session db = getDb();
         SECUser u = null;
         try {
-            u = (SECUser) db.createCriteria(SECUser.class).add(Restrictions.eq("nick", username)).uniqueResult();
-            if (u != null) {
-                db.refresh(u);
-            }
+            final String nick = (username == null) ? null : username.toLowerCase();
+            u = (SECUser) db.createCriteria(SECUser.class).add(Restrictions.eq("nick", nick)).setCacheable(true).setCacheRegion(USER_QUERY_REGION).uniqueResult();
         } catch (Exception e) {
             getLog().error(e);
             throw new PMSecurityException(e);
@@ -82,7 +158,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
     public List<PMSecurityUser> getUsers() throws PMSecurityException {
         final List<PMSecurityUser> result = new ArrayList<PMSecurityUser>();
         try {
-            final List<SECUser> users = getDb().createCriteria(SECUser.class).list();
+            final List<SECUser> users = getDb().createQuery(USERS_GRAPH_QUERY).list();
             for (SECUser u : users) {
                 result.add(convert(u));
             }
@@ -105,6 +181,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
             final SECUser secuser = unconvert(null, user);
             secuser.setPassword(encrypt(user.getPassword()));
             getDb().save(secuser);
+            evict(secuser);
         } catch (PMSecurityException e) {
             throw e;
         } catch (Exception e) {
@@ -119,6 +196,8 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
             SECUser secuser = getDBUser(user.getUsername());
             secuser = unconvert(secuser, user);
             getDb().update(secuser);
+            evict(secuser);
+            PMSecurityDBCache.getInstance().invalidate(secuser.getNick());
         } catch (PMSecurityException e) {
             throw e;
         } catch (Exception e) {
@@ -126,6 +205,181 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
         }
     }
 
+    /**
+     * Add many users at once. Existence is checked with a single query, groups
+     * are resolved once, passwords are hashed in parallel and users are saved
+     * flushing the session every {@link #getBatchSize()} users so inserts go
+     * in JDBC batches. Nothing is written if any user already exists.
+     */
+    public void addUsers(List<PMSecurityUser> users) throws PMSecurityException {
+        try {
+            final Set<String> nicks = new HashSet<String>();
+            for (PMSecurityUser user : users) {
+                checkUserRules(user.getUsername(), user.getPassword());
+                if (!nicks.add(user.getUsername().toLowerCase())) {
+                    throw new UserAlreadyExistException();
+                }
+            }
+            if (!getDBUsers(nicks).isEmpty()) {
+                throw new UserAlreadyExistException();
+            }
+            final Map<String, SECUserGroup> groups = getDBGroups(users);
+            final List<String> passwords = encryptAll(users);
+            final Session db = getDb();
+            for (int i = 0; i < users.size(); i++) {
+                final SECUser secuser = new SECUser();
+                unload(users.get(i), null, secuser, groups);
+                secuser.setPassword(passwords.get(i));
+                db.save(secuser);
+                if ((i + 1) % getBatchSize() == 0) {
+                    db.flush();
+                    db.clear();
+                }
+            }
+            db.flush();
+            db.clear();
+            db.getSessionFactory().getCache().evictQueryRegion(USER_QUERY_REGION);
+        } catch (PMSecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PMSecurityException(e);
+        }
+    }
+
+    /**
+     * Update many users at once. Users are loaded and written
+     * {@link #getBatchSize()} at a time with a single query each chunk, and
+     * the session is flushed and cleared after every chunk so updates go in
+     * JDBC batches. Groups are resolved once for all the users.
+     */
+    public void updateUsers(List<PMSecurityUser> users) throws PMSecurityException {
+        try {
+            for (PMSecurityUser user : users) {
+                checkUserRules(user.getUsername(), user.getPassword());
+            }
+            final Map<String, SECUserGroup> groups = getDBGroups(users);
+            final Session db = getDb();
+            final Cache cache = db.getSessionFactory().getCache();
+            final PMSecurityDBCache authCache = PMSecurityDBCache.getInstance();
+            for (int from = 0; from < users.size(); from += getBatchSize()) {
+                final List<PMSecurityUser> chunk = users.subList(from, Math.min(users.size(), from + getBatchSize()));
+                final Set<String> nicks = new HashSet<String>();
+                for (PMSecurityUser user : chunk) {
+                    nicks.add(user.getUsername().toLowerCase());
+                }
+                //Loaded after the previous clear so their collections are usable
+                final Map<String, SECUser> existing = getDBUsers(nicks);
+                for (PMSecurityUser user : chunk) {
+                    final SECUser secuser = existing.get(user.getUsername().toLowerCase());
+                    if (secuser == null) {
+                        throw new UserNotFoundException();
+                    }
+                    unload(user, secuser, secuser, groups);
+                    db.update(secuser);
+                    cache.evictEntity(SECUser.class, secuser.getId());
+                    cache.evictCollection(USER_GROUPS_ROLE, secuser.getId());
+                    authCache.invalidate(secuser.getNick());
+                }
+                db.flush();
+                db.clear();
+            }
+            cache.evictQueryRegion(USER_QUERY_REGION);
+        } catch (PMSecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PMSecurityException(e);
+        }
+    }
+
+    /**
+     * Users with the given nicks, in chunked IN queries
+     */
+    public Map<String, SECUser> getDBUsers(Collection<String> nicks) throws PMSecurityException {
+        final Map<String, SECUser> result = new HashMap<String, SECUser>();
+        try {
+            for (List<String> chunk : chunks(nicks)) {
+                final List<SECUser> l = getDb().createCriteria(SECUser.class).add(Restrictions.in("nick", chunk)).list();
+                for (SECUser u : l) {
+                    result.put(u.getNick(), u);
+                }
+            }
+        } catch (Exception e) {
+            getLog().error(e);
+            throw new PMSecurityException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Groups referenced by any of the users, by name
+     */
+    protected Map<String, SECUserGroup> getDBGroups(List<PMSecurityUser> users) throws PMSecurityException {
+        final Set<String> names = new HashSet<String>();
+        for (PMSecurityUser user : users) {
+            for (PMSecurityUserGroup g : user.getGroups()) {
+                names.add(g.getName());
+            }
+        }
+        final Map<String, SECUserGroup> result = new HashMap<String, SECUserGroup>();
+        try {
+            for (List<String> chunk : chunks(names)) {
+                final List<SECUserGroup> l = getDb().createCriteria(SECUserGroup.class).add(Restrictions.in("name", chunk)).list();
+                for (SECUserGroup g : l) {
+                    result.put(g.getName(), g);
+                }
+            }
+        } catch (Exception e) {
+            throw new PMSecurityException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Hash the passwords of the users using every available processor
+     *
+     * @return the hashes, in the same order
+     */
+    protected List<String> encryptAll(List<PMSecurityUser> users) throws PMSecurityException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (final PMSecurityUser user : users) {
+                futures.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        return encrypt(user.getPassword());
+                    }
+                }));
+            }
+            final List<String> result = new ArrayList<String>();
+            for (Future<String> f : futures) {
+                result.add(f.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PMSecurityException(e);
+        } catch (ExecutionException e) {
+            throw new PMSecurityException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<List<String>> chunks(Collection<String> values) {
+        final List<List<String>> result = new ArrayList<List<String>>();
+        List<String> chunk = null;
+        for (String v : values) {
+            if (chunk == null || chunk.size() == IN_CHUNK_SIZE) {
+                chunk = new ArrayList<String>();
+                result.add(chunk);
+            }
+            chunk.add(v);
+        }
+        return result;
+    }
+
     @Override
     public PMSecurityUserGroup getGroup(String groupname) throws PMSecurityException {
         return convert(getDBGroup(groupname));
@@ -133,7 +387,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
 
     public SECUserGroup getDBGroup(String groupname) throws PMSecurityException {
         try {
-            return (SECUserGroup) getDb().createCriteria(SECUserGroup.class).add(Restrictions.eq("name", groupname)).uniqueResult();
+            return (SECUserGroup) getDb().createCriteria(SECUserGroup.class).add(Restrictions.eq("name", groupname)).setCacheable(true).setCacheRegion(GROUP_QUERY_REGION).uniqueResult();
         } catch (Exception e) {
             throw new PMSecurityException(e);
         }
@@ -143,7 +397,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
     public List<PMSecurityUserGroup> getGroups() throws PMSecurityException {
         final List<PMSecurityUserGroup> groups = new ArrayList<PMSecurityUserGroup>();
         try {
-            final List<SECUserGroup> ug = getDb().createCriteria(SECUserGroup.class).list();
+            final List<SECUserGroup> ug = getDb().createQuery(GROUPS_GRAPH_QUERY).list();
             for (SECUserGroup g : ug) {
                 groups.add(convert(g));
             }
@@ -164,6 +418,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
             final SECUserGroup secuserg = unconvert(null, group);
 
             getDb().save(secuserg);
+            evict(secuserg);
         } catch (PMSecurityException e) {
             throw e;
         } catch (Exception e) {
@@ -180,6 +435,9 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
             db.refresh(secuserg);
             secuserg = unconvert(secuserg, group);
             db.update(secuserg);
+            evict(secuserg);
+            SECPermissionIndex.changed();
+            PMSecurityDBCache.getInstance().clearUsers();
         } catch (Exception e) {
             getLog().error(e);
         }
@@ -258,6 +516,13 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
     }
 
     protected void unload(PMSecurityUser u, SECUser secuser, SECUser output) throws PMSecurityException {
+        unload(u, secuser, output, null);
+    }
+
+    /**
+     * @param groups already loaded groups by name or null to look each one up
+     */
+    protected void unload(PMSecurityUser u, SECUser secuser, SECUser output, Map<String, SECUserGroup> groups) throws PMSecurityException {
         output.getGroups().clear();
         output.setActive(u.isActive());
         output.setChangePassword(u.isChangePassword());
@@ -269,8 +534,9 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
             output.setNick(u.getUsername().toLowerCase());
         }
         for (PMSecurityUserGroup g : u.getGroups()) {
-            output.getGroups().add(getDBGroup(g.getName()));
+            output.getGroups().add((groups == null) ? getDBGroup(g.getName()) : groups.get(g.getName()));
         }
+        output.invalidatePermissions();
     }
 
     protected SECUserGroup unconvert(SECUserGroup secgroup, PMSecurityUserGroup g) throws PMException {
@@ -296,10 +562,7 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
         final Session db = getDb();
         SECPermission p = null;
         try {
-            p = (SECPermission) db.createCriteria(SECPermission.class).add(Restrictions.eq("name", name)).uniqueResult();
-            if (p != null) {
-                db.refresh(p);
-            }
+            p = (SECPermission) db.createCriteria(SECPermission.class).add(Restrictions.eq("name", name)).setCacheable(true).setCacheRegion(PERMISSION_QUERY_REGION).uniqueResult();
         } catch (Exception e) {
             getLog().error(e);
             throw new PMSecurityException(e);
@@ -317,8 +580,46 @@ public class PMSecurityDBConnector extends PMSecurityAbstractConnector {
         return perm;
     }
 
+    /**
+     * Number of users written between session flushes in bulk operations
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     @Override
     public void removeGroup(PMSecurityUserGroup group) throws PMSecurityException {
-        getDb().delete(getDBGroup(group.getName()));
+        final SECUserGroup secuserg = getDBGroup(group.getName());
+        getDb().delete(secuserg);
+        evict(secuserg);
+        SECPermissionIndex.changed();
+        PMSecurityDBCache.getInstance().clearUsers();
+        //Memberships are removed by the database cascade, not by hibernate
+        getDb().getSessionFactory().getCache().evictCollectionRegion(USER_GROUPS_ROLE);
+    }
+
+    /**
+     * Evict a user, its groups and the nick lookups from the second level cache
+     */
+    protected void evict(SECUser u) {
+        final Cache cache = getDb().getSessionFactory().getCache();
+        cache.evictEntity(SECUser.class, u.getId());
+        cache.evictCollection(USER_GROUPS_ROLE, u.getId());
+        cache.evictQueryRegion(USER_QUERY_REGION);
+    }
+
+    /**
+     * Evict a group, its permissions and the name lookups from the second
+     * level cache
+     */
+    protected void evict(SECUserGroup g) {
+        final Cache cache = getDb().getSessionFactory().getCache();
+        cache.evictEntity(SECUserGroup.class, g.getId());
+        cache.evictCollection(GROUP_PERMISSIONS_ROLE, g.getId());
+        cache.evictQueryRegion(GROUP_QUERY_REGION);
     }
 }